@@ -0,0 +1,20 @@
+package com.github.kzwang.osem.annotations;
+
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Version field of the object, a numeric value maintained by the application. Index and delete requests of the object
+ * carry it as external version, so a write with a version not greater than the one in ElasticSearch fails with a
+ * version conflict. It will not be include in the json unless has annotation {@link com.github.kzwang.osem.annotations.IndexableProperty}
+ *
+ * @see <a href="http://www.elasticsearch.org/guide/en/elasticsearch/reference/current/docs-index_.html#index-versioning">Versioning</a>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(value = {ElementType.FIELD, ElementType.METHOD})
+public @interface IndexableVersion {
+
+}
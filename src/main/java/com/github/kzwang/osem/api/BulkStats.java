@@ -0,0 +1,55 @@
+package com.github.kzwang.osem.api;
+
+
+/**
+ * Current decisions and observations of the adaptive bulk tuning ("osem.bulk.adaptive.enabled"), shared by all indexers
+ * of a {@link com.github.kzwang.osem.inject.ElasticSearchOsemFactory}
+ */
+public interface BulkStats {
+
+    /**
+     * @return current max number of actions in a bulk request
+     */
+    public int getBatchSize();
+
+    /**
+     * @return current max number of bulk requests of a split bulk operation executing at the same time
+     */
+    public int getConcurrentRequests();
+
+    /**
+     * @return target latency of a bulk request
+     */
+    public long getTargetLatencyMillis();
+
+    /**
+     * @return moving average of the latency of bulk requests
+     */
+    public long getAverageLatencyMillis();
+
+    /**
+     * @return moving average of the ratio of rejected items in bulk requests
+     */
+    public double getRejectionRate();
+
+    /**
+     * @return moving average of the time spent serializing an action on the client
+     */
+    public long getSerializationNanosPerAction();
+
+    /**
+     * @return number of completed bulk requests
+     */
+    public long getNumberOfRequests();
+
+    /**
+     * @return number of items rejected by ElasticSearch
+     */
+    public long getNumberOfRejectedItems();
+
+    /**
+     * @return number of bulk requests failed as a whole
+     */
+    public long getNumberOfFailedRequests();
+
+}
@@ -0,0 +1,18 @@
+package com.github.kzwang.osem.api;
+
+import java.util.Iterator;
+
+
+/**
+ * Iterator holding resources on ElasticSearch which should be released if the iteration is stopped early
+ *
+ * @param <T> class of the objects
+ */
+public interface CloseableIterator<T> extends Iterator<T> {
+
+    /**
+     * Stop iterating and release the resources, called automatically when all objects are iterated
+     */
+    public void close();
+
+}
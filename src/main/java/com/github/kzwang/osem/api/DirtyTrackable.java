@@ -0,0 +1,23 @@
+package com.github.kzwang.osem.api;
+
+import java.util.Set;
+
+
+/**
+ * Object which tracks its changed properties, {@link ElasticSearchIndexer#update(Object, String...)} and
+ * {@link ElasticSearchIndexer#bulkUpdate(Object...)} only send the changed properties of such object and clear them
+ * once the update succeeds
+ */
+public interface DirtyTrackable {
+
+    /**
+     * @return names of the properties changed since last clear, either java names or names in the json source
+     */
+    public Set<String> getDirtyFields();
+
+    /**
+     * Clear the changed properties, called after they are updated in ElasticSearch
+     */
+    public void clearDirtyFields();
+
+}
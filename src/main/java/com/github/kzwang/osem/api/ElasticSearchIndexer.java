@@ -1,19 +1,29 @@
 package com.github.kzwang.osem.api;
 
 import com.github.kzwang.osem.impl.ElasticSearchIndexerImpl;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ListenableActionFuture;
 import org.elasticsearch.action.admin.indices.alias.IndicesAliasesResponse;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexResponse;
 import org.elasticsearch.action.admin.indices.mapping.delete.DeleteMappingResponse;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingResponse;
 import org.elasticsearch.action.admin.indices.refresh.RefreshResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.deletebyquery.DeleteByQueryResponse;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.inject.ImplementedBy;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.QueryBuilder;
 
+import java.util.Iterator;
+
 
 @ImplementedBy(ElasticSearchIndexerImpl.class)
 public interface ElasticSearchIndexer {
@@ -32,6 +42,16 @@ public interface ElasticSearchIndexer {
      */
     public void setIndexName(String indexName);
 
+    /**
+     * Get an indexer bound to the index, it shares client, processor and caches with this indexer and its index name can't
+     * be changed, so it can be used by many threads together with indexers of other indices.
+     * The same instance is returned for the same index name
+     *
+     * @param indexName the index name to use
+     * @return indexer for the index
+     */
+    public ElasticSearchIndexer forIndex(String indexName);
+
     /**
      * Generate mapping for class and create mapping in ElasticSearch
      *
@@ -66,36 +86,224 @@ public interface ElasticSearchIndexer {
     public String getMapping(Class clazz);
 
     /**
-     * Index an object
+     * Index an object. With a spool ("osem.spool.path"), the request is spooled if the cluster is unavailable and
+     * replayed once it's available again
      *
      * @param object object to index
-     * @return response from ElasticSearch
+     * @return response from ElasticSearch, null if the request is spooled
      */
     public IndexResponse index(Object object);
 
     /**
-     * Index an array of objects
+     * Index an object without blocking
+     *
+     * @param object object to index
+     * @return future of the response from ElasticSearch
+     */
+    public ListenableActionFuture<IndexResponse> indexAsync(Object object);
+
+    /**
+     * Index an object without blocking
+     *
+     * @param object   object to index
+     * @param listener listener notified with the response from ElasticSearch
+     */
+    public void indexAsync(Object object, ActionListener<IndexResponse> listener);
+
+    /**
+     * Index an array of objects, split into bulk requests of at most "osem.bulk.actions" actions and "osem.bulk.size"
+     * bytes, of which "osem.bulk.split.concurrent_requests" are executed at the same time. Actions on the same document
+     * are applied in order as long as the requests are executed one at a time, the default, and rejected items aren't
+     * retried ("osem.bulk.retry.max_retries"). An empty array returns an empty response without sending a request.
+     * With a source hash store ("osem.source_hash.store"), objects whose source is unchanged since they were last bulk
+     * indexed are not sent, see {@link OsemBulkResponse#getUnchanged()}
      *
      * @param objects objects to index
-     * @return response from ElasticSearch
+     * @return merged response of all bulk requests
+     */
+    public OsemBulkResponse bulkIndex(Object... objects);
+
+    /**
+     * Index an array of objects only if they don't exist in the index yet, see {@link #bulkIndex(IndexRequest.OpType, Object...)}
+     *
+     * @param objects objects to create
+     * @return merged response of all bulk requests, existing objects are skipped items
      */
-    public BulkResponse bulkIndex(Object... objects);
+    public OsemBulkResponse bulkCreate(Object... objects);
 
     /**
-     * Delete an object
+     * Index an array of objects with the op type. Items failed because of a version conflict, i.e. the document already
+     * exists with {@link IndexRequest.OpType#CREATE} or the {@link com.github.kzwang.osem.annotations.IndexableVersion}
+     * is stale, are skipped rather than failed, see {@link OsemBulkResponse#getSkippedItems()}
+     *
+     * @param opType  op type of the index requests
+     * @param objects objects to index
+     * @return merged response of all bulk requests
+     */
+    public OsemBulkResponse bulkIndex(IndexRequest.OpType opType, Object... objects);
+
+    /**
+     * Index objects pulled lazily from the iterable in windows of "osem.bulk.actions" objects, see
+     * {@link #bulkIndex(java.util.Iterator, ActionListener)}
+     *
+     * @param objects objects to index
+     * @return number of objects failed to index
+     */
+    public long bulkIndex(Iterable<?> objects);
+
+    /**
+     * Index objects pulled lazily from the iterator in windows of "osem.bulk.actions" objects. At most
+     * "osem.bulk.concurrent_requests" windows are in flight, the iterator is not advanced until a window completes, so
+     * only a bounded number of objects is held in memory
+     *
+     * @param objects  objects to index
+     * @param listener optional listener notified with the response of each window, may be called concurrently
+     * @return number of objects failed to index
+     */
+    public long bulkIndex(Iterator<?> objects, @Nullable ActionListener<BulkResponse> listener);
+
+    /**
+     * Index an array of objects without blocking
+     *
+     * @param objects objects to index
+     * @return future of the response from ElasticSearch
+     */
+    public ListenableActionFuture<BulkResponse> bulkIndexAsync(Object... objects);
+
+    /**
+     * Index an array of objects without blocking
+     *
+     * @param listener listener notified with the response from ElasticSearch
+     * @param objects  objects to index
+     */
+    public void bulkIndexAsync(ActionListener<BulkResponse> listener, Object... objects);
+
+    /**
+     * Update some properties of an indexed object with a partial document, the rest of its source is kept.
+     * Without property names, only the changed properties of a {@link DirtyTrackable} object are updated, or all
+     * properties with value of other objects
+     *
+     * @param object        object to update
+     * @param propertyNames names of the properties to update, either java names or names in the json source
+     * @return response from ElasticSearch, null if the {@link DirtyTrackable} object has no changed properties
+     */
+    public UpdateResponse update(Object object, String... propertyNames);
+
+    /**
+     * Update some properties of an indexed object without blocking, see {@link #update(Object, String...)}
+     *
+     * @param object        object to update
+     * @param propertyNames names of the properties to update, either java names or names in the json source
+     * @return future of the response from ElasticSearch, completed with null if the {@link DirtyTrackable} object has no
+     * changed properties
+     */
+    public ListenableActionFuture<UpdateResponse> updateAsync(Object object, String... propertyNames);
+
+    /**
+     * Update an array of objects with partial documents of their changed properties, see {@link #update(Object, String...)}.
+     * {@link DirtyTrackable} objects without changed properties are skipped
+     *
+     * @param objects objects to update
+     * @return merged response of all bulk requests
+     */
+    public OsemBulkResponse bulkUpdate(Object... objects);
+
+    /**
+     * Update an array of objects without blocking, see {@link #bulkUpdate(Object...)}
+     *
+     * @param objects objects to update
+     * @return future of the response from ElasticSearch
+     */
+    public ListenableActionFuture<BulkResponse> bulkUpdateAsync(Object... objects);
+
+    /**
+     * Delete an object. With a spool ("osem.spool.path"), the request is spooled if the cluster is unavailable and
+     * replayed once it's available again
      *
      * @param object object to delete
-     * @return response from ElasticSearch
+     * @return response from ElasticSearch, null if the request is spooled
      */
     public DeleteResponse delete(Object object);
 
     /**
-     * Delete an array of objects
+     * Delete an object without blocking
+     *
+     * @param object object to delete
+     * @return future of the response from ElasticSearch
+     */
+    public ListenableActionFuture<DeleteResponse> deleteAsync(Object object);
+
+    /**
+     * Delete an object without blocking
+     *
+     * @param object   object to delete
+     * @param listener listener notified with the response from ElasticSearch
+     */
+    public void deleteAsync(Object object, ActionListener<DeleteResponse> listener);
+
+    /**
+     * Delete an array of objects, split into bulk requests like {@link #bulkIndex(Object...)}, with the same ordering
+     * caveat. An empty array returns an empty response without sending a request
      *
      * @param objects objects to delete
-     * @return response from ElasticSearch
+     * @return merged response of all bulk requests
+     */
+    public OsemBulkResponse bulkDelete(Object... objects);
+
+    /**
+     * Delete an array of objects without blocking
+     *
+     * @param objects objects to delete
+     * @return future of the response from ElasticSearch
+     */
+    public ListenableActionFuture<BulkResponse> bulkDeleteAsync(Object... objects);
+
+    /**
+     * Delete an array of objects without blocking
+     *
+     * @param listener listener notified with the response from ElasticSearch
+     * @param objects  objects to delete
+     */
+    public void bulkDeleteAsync(ActionListener<BulkResponse> listener, Object... objects);
+
+    /**
+     * Start a background {@link BulkProcessor} for {@link #queueIndex(Object)} and {@link #queueDelete(Object)}
+     *
+     * @param bulkActions        number of queued actions to trigger a flush, -1 to disable
+     * @param bulkSize           optional size of queued actions to trigger a flush
+     * @param flushInterval      optional interval to flush queued actions
+     * @param concurrentRequests number of bulk requests allowed in flight, 0 to flush on the calling thread
+     * @param listener           optional listener notified before and after each bulk request
+     */
+    public void startBulkProcessor(int bulkActions, @Nullable ByteSizeValue bulkSize, @Nullable TimeValue flushInterval,
+                                   int concurrentRequests, @Nullable BulkProcessor.Listener listener);
+
+    /**
+     * Start a background {@link BulkProcessor} for {@link #queueIndex(Object)} and {@link #queueDelete(Object)}, flushed
+     * according to the "osem.bulk.*" settings
+     *
+     * @param listener optional listener notified before and after each bulk request
      */
-    public BulkResponse bulkDelete(Object... objects);
+    public void startBulkProcessor(@Nullable BulkProcessor.Listener listener);
+
+    /**
+     * Queue an object to be indexed by the background bulk processor
+     *
+     * @param object object to index
+     */
+    public void queueIndex(Object object);
+
+    /**
+     * Queue an object to be deleted by the background bulk processor
+     *
+     * @param object object to delete
+     */
+    public void queueDelete(Object object);
+
+    /**
+     * Flush all queued objects, wait for in-flight bulk requests and close the background bulk processor
+     */
+    public void closeBulkProcessor();
 
     /**
      * Delete objects by query
@@ -106,6 +314,24 @@ public interface ElasticSearchIndexer {
      */
     public DeleteByQueryResponse deleteByQuery(Class clazz, QueryBuilder queryBuilder);
 
+    /**
+     * Delete objects by query without blocking
+     *
+     * @param clazz        class of objects need to delete
+     * @param queryBuilder delete query
+     * @return future of the response from ElasticSearch
+     */
+    public ListenableActionFuture<DeleteByQueryResponse> deleteByQueryAsync(Class clazz, QueryBuilder queryBuilder);
+
+    /**
+     * Delete objects by query without blocking
+     *
+     * @param clazz        class of objects need to delete
+     * @param queryBuilder delete query
+     * @param listener     listener notified with the response from ElasticSearch
+     */
+    public void deleteByQueryAsync(Class clazz, QueryBuilder queryBuilder, ActionListener<DeleteByQueryResponse> listener);
+
     /**
      * Check index exist or not
      *
@@ -158,5 +384,14 @@ public interface ElasticSearchIndexer {
      */
     public boolean aliasExist(String aliasName);
 
+    /**
+     * Get the current decisions and observations of the adaptive bulk tuning, shared with the other indexers of the
+     * same {@link com.github.kzwang.osem.inject.ElasticSearchOsemFactory}
+     *
+     * @return bulk stats, null if "osem.bulk.adaptive.enabled" is not set
+     */
+    @Nullable
+    public BulkStats getBulkStats();
+
 
 }
@@ -1,6 +1,9 @@
 package com.github.kzwang.osem.api;
 
 import com.github.kzwang.osem.impl.ElasticSearchSearcherImpl;
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ListenableActionFuture;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.common.Nullable;
@@ -64,6 +67,26 @@ public interface ElasticSearchSearcher {
      */
     public <T> List<T> search(Class<T> clazz, SearchRequestBuilder requestBuilder);
 
+    /**
+     * Iterate over all objects matching the query using scan/scroll
+     *
+     * @param clazz        class to search
+     * @param queryBuilder optional query builder
+     * @param batchSize    number of hits per shard fetched in each scroll request
+     * @return iterator of objects from search result, should be closed if not iterated to the end
+     */
+    public <T> CloseableIterator<T> scan(Class<T> clazz, @Nullable QueryBuilder queryBuilder, int batchSize);
+
+    /**
+     * Iterate over all objects matching the search request using scan/scroll
+     *
+     * @param clazz          class to search
+     * @param requestBuilder SearchRequestBuilder, must get from {@link #getSearchRequestBuilder(Class[])}
+     * @param batchSize      number of hits per shard fetched in each scroll request
+     * @return iterator of objects from search result, should be closed if not iterated to the end
+     */
+    public <T> CloseableIterator<T> scan(Class<T> clazz, SearchRequestBuilder requestBuilder, int batchSize);
+
     /**
      * Get search request build and set the search types
      *
@@ -100,4 +123,106 @@ public interface ElasticSearchSearcher {
      */
     public <T> List<T> getByIds(Class<T> clazz, List<String> ids);
 
+    /**
+     * Count the number of objects in ElasticSearch for given class without blocking
+     *
+     * @param clazz        class to count
+     * @param queryBuilder optional count query
+     * @return future of the number of objects
+     */
+    public ActionFuture<Long> countAsync(Class clazz, @Nullable QueryBuilder queryBuilder);
+
+    /**
+     * Count the number of objects in ElasticSearch for given class without blocking
+     *
+     * @param clazz        class to count
+     * @param queryBuilder optional count query
+     * @param listener     listener notified with the number of objects
+     */
+    public void countAsync(Class clazz, @Nullable QueryBuilder queryBuilder, ActionListener<Long> listener);
+
+    /**
+     * Perform search in ElasticSearch without blocking
+     *
+     * @param requestBuilder SearchRequestBuilder, must get from {@link #getSearchRequestBuilder(Class[])}
+     * @return future of the SearchResponse from ElasticSearch
+     */
+    public ListenableActionFuture<SearchResponse> searchAsync(SearchRequestBuilder requestBuilder);
+
+    /**
+     * Perform search in ElasticSearch without blocking and convert search result to original object
+     *
+     * @param clazz         class to search
+     * @param queryBuilder  optional query builder
+     * @param filterBuilder optional filter builder
+     * @return future of the list of object from search result
+     */
+    public <T> ActionFuture<List<T>> searchAsync(Class<T> clazz, @Nullable QueryBuilder queryBuilder, @Nullable FilterBuilder filterBuilder);
+
+    /**
+     * Perform search in ElasticSearch without blocking and convert search result to original object
+     *
+     * @param clazz         class to search
+     * @param queryBuilder  optional query builder
+     * @param filterBuilder optional filter builder
+     * @param listener      listener notified with the list of object from search result
+     */
+    public <T> void searchAsync(Class<T> clazz, @Nullable QueryBuilder queryBuilder, @Nullable FilterBuilder filterBuilder, ActionListener<List<T>> listener);
+
+    /**
+     * Perform search in ElasticSearch without blocking and convert search result to original object
+     *
+     * @param clazz          class to search
+     * @param requestBuilder SearchRequestBuilder, must get from {@link #getSearchRequestBuilder(Class[])}
+     * @return future of the list of object from search result
+     */
+    public <T> ActionFuture<List<T>> searchAsync(Class<T> clazz, SearchRequestBuilder requestBuilder);
+
+    /**
+     * Perform search in ElasticSearch without blocking and convert search result to original object
+     *
+     * @param clazz          class to search
+     * @param requestBuilder SearchRequestBuilder, must get from {@link #getSearchRequestBuilder(Class[])}
+     * @param listener       listener notified with the list of object from search result
+     */
+    public <T> void searchAsync(Class<T> clazz, SearchRequestBuilder requestBuilder, ActionListener<List<T>> listener);
+
+    /**
+     * Get an object by id without blocking
+     *
+     * @param clazz   class of the object
+     * @param id      id of the object
+     * @param routing routing of the object
+     * @return future of the object from ElasticSearch
+     */
+    public <T> ActionFuture<T> getByIdAsync(Class<T> clazz, String id, @Nullable String routing);
+
+    /**
+     * Get an object by id without blocking
+     *
+     * @param clazz    class of the object
+     * @param id       id of the object
+     * @param routing  routing of the object
+     * @param listener listener notified with the object from ElasticSearch
+     */
+    public <T> void getByIdAsync(Class<T> clazz, String id, @Nullable String routing, ActionListener<T> listener);
+
+    /**
+     * Get objects by id list without blocking
+     *
+     * @param clazz class of the objects
+     * @param ids   id list of the ojects
+     * @return future of the list of objects from ElasticSearch
+     */
+    public <T> ActionFuture<List<T>> getByIdsAsync(Class<T> clazz, List<String> ids);
+
+    /**
+     * Get objects by id list without blocking
+     *
+     * @param clazz    class of the objects
+     * @param ids      id list of the ojects
+     * @param listener listener notified with the list of objects from ElasticSearch
+     */
+    public <T> void getByIdsAsync(Class<T> clazz, List<String> ids, ActionListener<List<T>> listener);
+
 }
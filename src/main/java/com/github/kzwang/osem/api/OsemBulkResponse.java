@@ -0,0 +1,154 @@
+package com.github.kzwang.osem.api;
+
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.rest.RestStatus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * {@link BulkResponse} of a bulk operation which may be split into several bulk requests, items are in the same order
+ * as the objects of the operation
+ */
+public class OsemBulkResponse extends BulkResponse {
+
+    private final int numberOfRequests;
+
+    private final List<BulkItemResponse> droppedItems;
+
+    private final int retries;
+
+    private final boolean conflictsSkipped;
+
+    private final int unchanged;
+
+    /**
+     * Conflicts aren't skipped and no object is unchanged, see {@link #withConflictsSkipped()} and
+     * {@link #withUnchanged(int)}
+     *
+     * @param responses        responses of all items, the last response of retried items
+     * @param tookInMillis     time taken by the whole operation
+     * @param numberOfRequests number of bulk requests executed, including retries
+     * @param droppedItems     items still rejected when no more retry was allowed
+     * @param retries          number of item retries
+     */
+    public OsemBulkResponse(BulkItemResponse[] responses, long tookInMillis, int numberOfRequests,
+                            List<BulkItemResponse> droppedItems, int retries) {
+        this(responses, tookInMillis, numberOfRequests, droppedItems, retries, false, 0);
+    }
+
+    private OsemBulkResponse(BulkItemResponse[] responses, long tookInMillis, int numberOfRequests,
+                             List<BulkItemResponse> droppedItems, int retries, boolean conflictsSkipped, int unchanged) {
+        super(responses, tookInMillis);
+        this.numberOfRequests = numberOfRequests;
+        this.droppedItems = Collections.unmodifiableList(droppedItems);
+        this.retries = retries;
+        this.conflictsSkipped = conflictsSkipped;
+        this.unchanged = unchanged;
+    }
+
+    /**
+     * @return copy of the response where items failed because of a version conflict are skipped rather than failed,
+     * e.g. for create-only operations where a conflict means the document already exists
+     */
+    public OsemBulkResponse withConflictsSkipped() {
+        return new OsemBulkResponse(getItems(), getTookInMillis(), numberOfRequests, droppedItems, retries, true, unchanged);
+    }
+
+    /**
+     * @return copy of the response with the number of objects not sent because their source is unchanged
+     */
+    public OsemBulkResponse withUnchanged(int unchanged) {
+        return new OsemBulkResponse(getItems(), getTookInMillis(), numberOfRequests, droppedItems, retries, conflictsSkipped, unchanged);
+    }
+
+    /**
+     * @return number of bulk requests the operation was split into
+     */
+    public int getNumberOfRequests() {
+        return numberOfRequests;
+    }
+
+    /**
+     * @return items rejected by ElasticSearch which were given up after retries or because the retry budget is exhausted
+     */
+    public List<BulkItemResponse> getDroppedItems() {
+        return droppedItems;
+    }
+
+    /**
+     * @return number of item retries
+     */
+    public int getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return number of objects not sent because their source is unchanged since they were last indexed, they have no item
+     */
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * @return items failed because of a version conflict, e.g. the object has an
+     * {@link com.github.kzwang.osem.annotations.IndexableVersion} not greater than the version in ElasticSearch
+     */
+    public List<BulkItemResponse> getConflicts() {
+        List<BulkItemResponse> conflicts = new ArrayList<BulkItemResponse>();
+        for (BulkItemResponse item : getItems()) {
+            if (isConflict(item)) {
+                conflicts.add(item);
+            }
+        }
+        return conflicts;
+    }
+
+    /**
+     * @return items skipped because of a version conflict, empty unless conflicts are skipped
+     */
+    public List<BulkItemResponse> getSkippedItems() {
+        return conflictsSkipped ? getConflicts() : Collections.<BulkItemResponse>emptyList();
+    }
+
+    /**
+     * @return true if any item failed, skipped items are not failures
+     */
+    @Override
+    public boolean hasFailures() {
+        if (!conflictsSkipped) {
+            return super.hasFailures();
+        }
+        for (BulkItemResponse item : getItems()) {
+            if (item.isFailed() && !isConflict(item)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String buildFailureMessage() {
+        if (!conflictsSkipped) {
+            return super.buildFailureMessage();
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("failure in bulk execution:");
+        for (BulkItemResponse item : getItems()) {
+            if (item.isFailed() && !isConflict(item)) {
+                sb.append("\n[").append(item.getItemId())
+                        .append("]: index [").append(item.getIndex()).append("], type [").append(item.getType())
+                        .append("], id [").append(item.getId()).append("], message [").append(item.getFailureMessage())
+                        .append("]");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isConflict(BulkItemResponse item) {
+        return item.isFailed() && item.getFailure().getStatus() == RestStatus.CONFLICT;
+    }
+}
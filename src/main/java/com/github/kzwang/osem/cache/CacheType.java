@@ -4,5 +4,5 @@ package com.github.kzwang.osem.cache;
  * Type of caches
  */
 public enum CacheType {
-    MAPPING, ID_FIELD, INDEX_TYPE_NAME, ROUTING_PATH, PARENT_PATH
+    MAPPING, MAPPING_REGISTRATION, INDEX_TYPE_NAME, CLASS_DESCRIPTOR
 }
\ No newline at end of file
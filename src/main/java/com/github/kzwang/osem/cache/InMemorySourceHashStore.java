@@ -0,0 +1,65 @@
+package com.github.kzwang.osem.cache;
+
+
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link SourceHashStore} on the heap, lost when the JVM exits
+ */
+public class InMemorySourceHashStore implements SourceHashStore {
+
+    private final ConcurrentMap<String, Long> hashes = ConcurrentCollections.newConcurrentMap();
+
+    @Override
+    public long get(String indexName, String typeName, String id) {
+        Long hash = hashes.get(key(indexName, typeName, id));
+        return hash == null ? 0 : hash;
+    }
+
+    @Override
+    public void put(String indexName, String typeName, String id, long sourceHash) {
+        if (sourceHash == 0) {
+            remove(indexName, typeName, id);
+        } else {
+            hashes.put(key(indexName, typeName, id), sourceHash);
+        }
+    }
+
+    @Override
+    public void remove(String indexName, String typeName, String id) {
+        hashes.remove(key(indexName, typeName, id));
+    }
+
+    @Override
+    public void clear(String indexName, @Nullable String typeName) {
+        String prefix = typeName == null ? indexName + '\0' : indexName + '\0' + typeName + '\0';
+        Iterator<String> keys = hashes.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().startsWith(prefix)) {
+                keys.remove();
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        hashes.clear();
+    }
+
+    @Override
+    public int size() {
+        return hashes.size();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static String key(String indexName, String typeName, String id) {
+        return indexName + '\0' + typeName + '\0' + id;
+    }
+}
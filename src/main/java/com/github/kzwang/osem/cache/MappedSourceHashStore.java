@@ -0,0 +1,252 @@
+package com.github.kzwang.osem.cache;
+
+
+import com.github.kzwang.osem.exception.ElasticSearchOsemException;
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link SourceHashStore} in a memory-mapped file, so the hashes stay off the heap and survive restarts.
+ * <p/>
+ * The file is an open addressing hash table of fixed size: a header followed by slots of 64-bit key hash, 64-bit
+ * source hash and 32-bit hashes of the index and of the type, documents are identified by the murmur3 hash of their
+ * index, type and id. The index and type hashes let the documents of an index or type be cleared, a collision only
+ * clears more documents than needed. Slots are never freed, a removed document keeps its slot with source hash 0. Once
+ * the store holds its capacity, hashes of new documents are not stored and those documents are always written
+ */
+public class MappedSourceHashStore implements SourceHashStore {
+
+    private static final ESLogger logger = Loggers.getLogger(MappedSourceHashStore.class);
+
+    private static final int MAGIC = 0x4f534853;  // "OSHS"
+
+    private static final int FORMAT_VERSION = 2;
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final int SLOT_SIZE = 24;
+
+    private static final HashFunction KEY_HASH = Hashing.murmur3_128();
+
+    private static final HashFunction SCOPE_HASH = Hashing.murmur3_32();
+
+    private final File file;
+
+    private final RandomAccessFile raf;
+
+    private final MappedByteBuffer buffer;
+
+    private final int slots;
+
+    private final int capacity;
+
+    private int used;
+
+    private int size;
+
+    private boolean fullWarned = false;
+
+    /**
+     * Open the store, the file is created if it doesn't exist and reset if it was created with another capacity
+     *
+     * @param file     file of the store
+     * @param capacity max number of documents, the file takes about 48 bytes per document
+     */
+    public MappedSourceHashStore(File file, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        long tableSlots = Long.highestOneBit((long) capacity * 2 - 1) << 1;  // at most half of the slots are used
+        long length = HEADER_SIZE + tableSlots * SLOT_SIZE;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("capacity too large for a memory-mapped store: " + capacity);
+        }
+        this.file = file;
+        this.slots = (int) tableSlots;
+        this.capacity = capacity;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            long previousLength = raf.length();
+            raf.setLength(length);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            if (previousLength == length && buffer.getInt(0) == MAGIC && buffer.getInt(4) == FORMAT_VERSION
+                    && buffer.getInt(8) == slots) {
+                load();
+            } else {
+                if (previousLength > 0) {
+                    logger.warn("Reset source hash store {} created with another capacity or format", file);
+                }
+                reset();
+            }
+        } catch (IOException e) {
+            throw new ElasticSearchOsemException("Failed to open source hash store " + file, e);
+        }
+        logger.debug("Opened source hash store {} with {} documents", file, size);
+    }
+
+    @Override
+    public long get(String indexName, String typeName, String id) {
+        long keyHash = keyHash(indexName, typeName, id);
+        synchronized (this) {
+            int slot = findSlot(keyHash);
+            return slot < 0 ? 0 : buffer.getLong(offset(slot) + 8);
+        }
+    }
+
+    @Override
+    public void put(String indexName, String typeName, String id, long sourceHash) {
+        long keyHash = keyHash(indexName, typeName, id);
+        int indexHash = scopeHash(indexName);
+        int typeHash = scopeHash(typeName);
+        synchronized (this) {
+            put(keyHash, sourceHash, indexHash, typeHash);
+        }
+    }
+
+    private void put(long keyHash, long sourceHash, int indexHash, int typeHash) {
+        int slot = findSlot(keyHash);
+        if (slot < 0) {
+            if (sourceHash == 0) {
+                return;
+            }
+            if (used >= capacity) {
+                if (!fullWarned) {
+                    logger.warn("Source hash store {} is full with {} documents, new documents will always be written", file, used);
+                    fullWarned = true;
+                }
+                return;
+            }
+            slot = -slot - 1;
+            buffer.putLong(offset(slot), keyHash);
+            buffer.putInt(offset(slot) + 16, indexHash);
+            buffer.putInt(offset(slot) + 20, typeHash);
+            used++;
+        }
+        setSourceHash(slot, sourceHash);
+    }
+
+    private void setSourceHash(int slot, long sourceHash) {
+        long previous = buffer.getLong(offset(slot) + 8);
+        buffer.putLong(offset(slot) + 8, sourceHash);
+        if (previous == 0 && sourceHash != 0) {
+            size++;
+        } else if (previous != 0 && sourceHash == 0) {
+            size--;
+        }
+    }
+
+    @Override
+    public void remove(String indexName, String typeName, String id) {
+        put(indexName, typeName, id, 0);
+    }
+
+    @Override
+    public void clear(String indexName, @Nullable String typeName) {
+        int indexHash = scopeHash(indexName);
+        int typeHash = typeName == null ? 0 : scopeHash(typeName);
+        synchronized (this) {
+            for (int slot = 0; slot < slots; slot++) {
+                if (buffer.getLong(offset(slot)) != 0 && buffer.getInt(offset(slot) + 16) == indexHash
+                        && (typeName == null || buffer.getInt(offset(slot) + 20) == typeHash)) {
+                    setSourceHash(slot, 0);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        reset();
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Write the changes to the file
+     */
+    public synchronized void flush() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        raf.close();
+    }
+
+    /**
+     * @return slot of the key, or (-(empty slot) - 1) if the key is not in the table
+     */
+    private int findSlot(long keyHash) {
+        int mask = slots - 1;
+        int slot = (int) (keyHash ^ (keyHash >>> 32)) & mask;
+        for (int i = 0; i < slots; i++) {
+            long current = buffer.getLong(offset(slot));
+            if (current == keyHash) {
+                return slot;
+            }
+            if (current == 0) {
+                return -slot - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        throw new IllegalStateException("Source hash store " + file + " has no empty slot");  // can't happen, used <= slots / 2
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;  // fits in an int, checked when the store is opened
+    }
+
+    private static long keyHash(String indexName, String typeName, String id) {
+        long hash = KEY_HASH.newHasher()
+                .putString(indexName, Charsets.UTF_8).putByte((byte) 0)
+                .putString(typeName, Charsets.UTF_8).putByte((byte) 0)
+                .putString(id, Charsets.UTF_8)
+                .hash().asLong();
+        return hash == 0 ? 1 : hash;  // 0 marks an empty slot
+    }
+
+    private static int scopeHash(String name) {
+        return SCOPE_HASH.hashString(name, Charsets.UTF_8).asInt();
+    }
+
+    private void load() {
+        used = 0;
+        size = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            if (buffer.getLong(offset(slot)) != 0) {
+                used++;
+                if (buffer.getLong(offset(slot) + 8) != 0) {
+                    size++;
+                }
+            }
+        }
+    }
+
+    private void reset() {
+        byte[] zeros = new byte[64 * 1024];
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            buffer.put(zeros, 0, Math.min(zeros.length, buffer.remaining()));
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT_VERSION);
+        buffer.putInt(8, slots);
+        used = 0;
+        size = 0;
+        fullWarned = false;
+    }
+}
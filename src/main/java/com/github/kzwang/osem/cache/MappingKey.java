@@ -0,0 +1,43 @@
+package com.github.kzwang.osem.cache;
+
+
+/**
+ * Cache key of the mapping of a class in an index
+ */
+public final class MappingKey {
+
+    private final String indexName;
+
+    private final Class clazz;
+
+    public MappingKey(String indexName, Class clazz) {
+        this.indexName = indexName;
+        this.clazz = clazz;
+    }
+
+    public String getIndexName() {
+        return indexName;
+    }
+
+    public Class getMappedClass() {
+        return clazz;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof MappingKey)) return false;
+        MappingKey that = (MappingKey) o;
+        return indexName.equals(that.indexName) && clazz.equals(that.clazz);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * indexName.hashCode() + clazz.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "[" + indexName + "][" + clazz.getName() + "]";
+    }
+}
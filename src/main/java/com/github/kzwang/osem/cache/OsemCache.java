@@ -1,20 +1,46 @@
 package com.github.kzwang.osem.cache;
 
 
-import org.elasticsearch.common.collect.Maps;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
 
-import java.util.HashMap;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Cache mapping, fields etc.
+ * <p/>
+ * Thread safe, the map for each {@link CacheType} is created up front so reads never take a lock
  */
 public class OsemCache {
 
-    private static OsemCache instance = null;
+    /**
+     * Placeholder for null values since {@link ConcurrentMap} doesn't allow null
+     */
+    private static final Object NULL_VALUE = new Object();
 
+    private final Map<CacheType, ConcurrentMap<Object, Object>> cache;
 
-    private HashMap<CacheType, HashMap<Object, Object>> cache = Maps.newHashMap();
 
+    /**
+     * Lazy holder of the singleton instance, initialized safely by the class loader on first use
+     */
+    private static class InstanceHolder {
+        private static final OsemCache INSTANCE = new OsemCache();
+    }
+
+    /**
+     * Create a cache which isn't shared with the singleton instance, use {@link #getInstance()} to share cached
+     * mappings and class descriptors
+     */
+    public OsemCache() {
+        Map<CacheType, ConcurrentMap<Object, Object>> caches = new EnumMap<CacheType, ConcurrentMap<Object, Object>>(CacheType.class);
+        for (CacheType cacheType : CacheType.values()) {
+            caches.put(cacheType, ConcurrentCollections.newConcurrentMap());
+        }
+        cache = caches;
+    }
 
     /**
      * Get Singleton {@link OsemCache} cache instance
@@ -22,34 +48,60 @@ public class OsemCache {
      * @return instance
      */
     public static OsemCache getInstance() {
-        if (instance == null) {
-            instance = new OsemCache();
-        }
-        return instance;
+        return InstanceHolder.INSTANCE;
     }
 
     public void putCache(CacheType cacheType, Object key, Object value) {
-        if (!cache.containsKey(cacheType)) {
-            cache.put(cacheType, Maps.newHashMap());
-        }
-        cache.get(cacheType).put(key, value);
+        cache.get(cacheType).put(key, maskNull(value));
+    }
+
+    /**
+     * Put value into cache if no value cached for the key yet
+     *
+     * @return the value cached for the key after the call: the given value if it was put, otherwise the value already
+     * cached, which may be null. Compare with the given value by identity to know if it was put
+     */
+    public Object putCacheIfAbsent(CacheType cacheType, Object key, Object value) {
+        Object existing = cache.get(cacheType).putIfAbsent(key, maskNull(value));
+        return existing == null ? value : unmaskNull(existing);
     }
 
     public boolean isExist(CacheType cacheType, Object key) {
-        return cache.containsKey(cacheType) && cache.get(cacheType).containsKey(key);
+        return cache.get(cacheType).containsKey(key);
     }
 
     public Object getCache(CacheType cacheType, Object key) {
-        if (!cache.containsKey(cacheType)) {
-            return null;
-        }
-        return cache.get(cacheType).get(key);
+        return unmaskNull(cache.get(cacheType).get(key));
     }
 
     public void removeCache(CacheType cacheType, Object key) {
-        if (cache.containsKey(cacheType)) {
-            cache.get(cacheType).remove(key);
-        }
+        cache.get(cacheType).remove(key);
+    }
+
+    /**
+     * Remove the cached value only if it is the given value
+     *
+     * @return true if the value was removed
+     */
+    public boolean removeCache(CacheType cacheType, Object key, Object value) {
+        return cache.get(cacheType).remove(key, maskNull(value));
+    }
+
+    /**
+     * Get the keys of the cache, removing a key from the returned set removes it from the cache
+     *
+     * @return live view of the keys
+     */
+    public Set<Object> getKeys(CacheType cacheType) {
+        return cache.get(cacheType).keySet();
+    }
+
+    private static Object maskNull(Object value) {
+        return value == null ? NULL_VALUE : value;
+    }
+
+    private static Object unmaskNull(Object value) {
+        return value == NULL_VALUE ? null : value;
     }
 
 
@@ -0,0 +1,49 @@
+package com.github.kzwang.osem.cache;
+
+
+import org.elasticsearch.common.Nullable;
+
+import java.io.Closeable;
+
+/**
+ * Hash of the source last written to ElasticSearch for each document, keyed by index, type and id. Used to skip
+ * objects whose serialized source is unchanged when they are indexed again.
+ * <p/>
+ * Implementations are thread safe. A hash of 0 means unknown, so the document is always written
+ */
+public interface SourceHashStore extends Closeable {
+
+    /**
+     * @return hash of the source last written, 0 if unknown
+     */
+    public long get(String indexName, String typeName, String id);
+
+    /**
+     * Store the hash of the source written, it may be ignored if the store is full
+     */
+    public void put(String indexName, String typeName, String id, long sourceHash);
+
+    /**
+     * Forget the hash of the document, e.g. after it's deleted or partially updated
+     */
+    public void remove(String indexName, String typeName, String id);
+
+    /**
+     * Forget the hashes of the documents of the index, e.g. after the index is deleted, or only of a type of the index,
+     * e.g. after its mapping is deleted or documents are deleted by query
+     *
+     * @param typeName type of the documents, null for all types of the index
+     */
+    public void clear(String indexName, @Nullable String typeName);
+
+    /**
+     * Forget the hashes of all documents
+     */
+    public void clear();
+
+    /**
+     * @return number of documents with a known hash
+     */
+    public int size();
+
+}
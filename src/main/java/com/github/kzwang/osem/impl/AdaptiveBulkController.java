@@ -0,0 +1,210 @@
+package com.github.kzwang.osem.impl;
+
+import com.github.kzwang.osem.api.BulkStats;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.unit.TimeValue;
+
+
+/**
+ * Tune the number of actions of a bulk request and the number of bulk requests executing at the same time from the
+ * observed latency and rejections, with additive increase and multiplicative decrease:
+ * <ul>
+ * <li>items rejected by ElasticSearch, or a whole request failed, halve both the batch size and the concurrent requests</li>
+ * <li>a latency above the target shrinks the batch size in proportion, at most by half, and drops one concurrent
+ * request once the batch size is at its min</li>
+ * <li>a latency below the target grows the batch size by its min, and adds one concurrent request once the batch size
+ * is at its max</li>
+ * </ul>
+ * The latency of a bulk request is the time ElasticSearch took plus the time spent serializing its actions on the client.
+ * The current decisions and observations are exported as {@link BulkStats}. Thread safe, one controller is meant to be
+ * shared by all indexers of a client since they load the same cluster
+ */
+public class AdaptiveBulkController implements BulkStats {
+
+    private static final ESLogger logger = Loggers.getLogger(AdaptiveBulkController.class);
+
+    /**
+     * Weight of the last observation in the moving averages
+     */
+    private static final double ALPHA = 0.2;
+
+    private final long targetLatencyMillis;
+
+    private final int minActions;
+
+    private final int maxActions;
+
+    private final int maxConcurrentRequests;
+
+    private volatile int batchSize;
+
+    private volatile int concurrentRequests;
+
+    private double serializationNanosPerAction = 0;
+
+    private double averageLatencyMillis = 0;
+
+    private double rejectionRate = 0;
+
+    private long numberOfRequests = 0;
+
+    private long numberOfRejectedItems = 0;
+
+    private long numberOfFailedRequests = 0;
+
+    /**
+     * @param targetLatency         target latency of a bulk request
+     * @param minActions            min number of actions in a bulk request, also the step of the batch size increase
+     * @param maxActions            max number of actions in a bulk request
+     * @param initialActions        initial number of actions in a bulk request
+     * @param maxConcurrentRequests max number of bulk requests executing at the same time
+     * @param initialConcurrent     initial number of bulk requests executing at the same time
+     */
+    public AdaptiveBulkController(TimeValue targetLatency, int minActions, int maxActions, int initialActions,
+                                  int maxConcurrentRequests, int initialConcurrent) {
+        this.targetLatencyMillis = Math.max(1, targetLatency.millis());
+        this.minActions = Math.max(1, minActions);
+        this.maxActions = Math.max(this.minActions, maxActions);
+        this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+        this.batchSize = clamp(initialActions, this.minActions, this.maxActions);
+        this.concurrentRequests = clamp(initialConcurrent, 1, this.maxConcurrentRequests);
+    }
+
+    @Override
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public int getConcurrentRequests() {
+        return concurrentRequests;
+    }
+
+    @Override
+    public long getTargetLatencyMillis() {
+        return targetLatencyMillis;
+    }
+
+    @Override
+    public synchronized long getAverageLatencyMillis() {
+        return Math.round(averageLatencyMillis);
+    }
+
+    @Override
+    public synchronized double getRejectionRate() {
+        return rejectionRate;
+    }
+
+    @Override
+    public synchronized long getSerializationNanosPerAction() {
+        return Math.round(serializationNanosPerAction);
+    }
+
+    @Override
+    public synchronized long getNumberOfRequests() {
+        return numberOfRequests;
+    }
+
+    @Override
+    public synchronized long getNumberOfRejectedItems() {
+        return numberOfRejectedItems;
+    }
+
+    @Override
+    public synchronized long getNumberOfFailedRequests() {
+        return numberOfFailedRequests;
+    }
+
+    /**
+     * Observe the time spent converting objects to actions
+     *
+     * @param actions number of converted actions
+     * @param nanos   conversion time
+     */
+    public synchronized void onSerialization(int actions, long nanos) {
+        if (actions <= 0) {
+            return;
+        }
+        serializationNanosPerAction = average(serializationNanosPerAction, (double) nanos / actions);
+    }
+
+    /**
+     * Observe a completed bulk request and adjust the batch size and concurrent requests
+     *
+     * @param actions    number of actions of the request
+     * @param tookMillis time ElasticSearch took to execute the request
+     * @param rejected   number of items rejected by ElasticSearch
+     */
+    public synchronized void onResponse(int actions, long tookMillis, int rejected) {
+        if (actions <= 0) {
+            return;
+        }
+        double latency = tookMillis + serializationNanosPerAction * actions / 1000000;
+        averageLatencyMillis = average(averageLatencyMillis, latency);
+        rejectionRate = average(rejectionRate, (double) rejected / actions);
+        numberOfRequests++;
+        numberOfRejectedItems += rejected;
+
+        int previousBatchSize = batchSize;
+        int previousConcurrent = concurrentRequests;
+        if (rejected > 0) {
+            batchSize = Math.max(minActions, batchSize / 2);
+            concurrentRequests = Math.max(1, concurrentRequests / 2);
+        } else if (latency > targetLatencyMillis) {
+            if (batchSize > minActions) {
+                batchSize = Math.max(minActions, Math.max(batchSize / 2, (int) (batchSize * targetLatencyMillis / latency)));
+            } else {
+                concurrentRequests = Math.max(1, concurrentRequests - 1);
+            }
+        } else if (actions * 2 >= batchSize) {  // a small last request says nothing about a full one
+            if (batchSize < maxActions) {
+                batchSize = Math.min(maxActions, batchSize + minActions);
+            } else {
+                concurrentRequests = Math.min(maxConcurrentRequests, concurrentRequests + 1);
+            }
+        }
+        if (logger.isDebugEnabled() && (batchSize != previousBatchSize || concurrentRequests != previousConcurrent)) {
+            logger.debug("Adjusted bulk to {} actions, {} concurrent requests, latency: {}ms, rejected: {}/{}",
+                    batchSize, concurrentRequests, Math.round(latency), rejected, actions);
+        }
+    }
+
+    /**
+     * Observe a bulk request failed as a whole, e.g. rejected by the node or timed out, and back off like for rejected
+     * items. The latency is not observed since the request has no took time
+     *
+     * @param actions number of actions of the request
+     */
+    public synchronized void onFailure(int actions) {
+        if (actions <= 0) {
+            return;
+        }
+        numberOfFailedRequests++;
+        int previousBatchSize = batchSize;
+        int previousConcurrent = concurrentRequests;
+        batchSize = Math.max(minActions, batchSize / 2);
+        concurrentRequests = Math.max(1, concurrentRequests / 2);
+        if (logger.isDebugEnabled() && (batchSize != previousBatchSize || concurrentRequests != previousConcurrent)) {
+            logger.debug("Adjusted bulk to {} actions, {} concurrent requests, request of {} actions failed",
+                    batchSize, concurrentRequests, actions);
+        }
+    }
+
+    private static double average(double average, double value) {
+        return average == 0 ? value : average + ALPHA * (value - average);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AdaptiveBulkController{batchSize=" + batchSize + ", concurrentRequests=" + concurrentRequests
+                + ", targetLatencyMillis=" + targetLatencyMillis + ", averageLatencyMillis=" + getAverageLatencyMillis()
+                + ", rejectionRate=" + rejectionRate + ", serializationNanosPerAction=" + getSerializationNanosPerAction()
+                + ", numberOfRequests=" + numberOfRequests + ", numberOfRejectedItems=" + numberOfRejectedItems
+                + ", numberOfFailedRequests=" + numberOfFailedRequests + "}";
+    }
+}
@@ -0,0 +1,424 @@
+package com.github.kzwang.osem.impl;
+
+import com.github.kzwang.osem.api.OsemBulkResponse;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Execute a bulk request split into smaller bulk requests by number of actions and size, at most
+ * {@code concurrentRequests} of them are executed at the same time. Responses of all requests are merged into one
+ * {@link OsemBulkResponse}. If a request fails as a whole, e.g. no node is available, the execution fails with its
+ * failure and no more request is sent.
+ * With a {@link BulkRetryPolicy}, items rejected by ElasticSearch are sent again after a backoff. With an
+ * {@link AdaptiveBulkController}, the number of actions and concurrent requests are taken from the controller when each
+ * request is sent, and each response is reported to it
+ */
+public class BulkExecutor {
+
+    private static final ESLogger logger = Loggers.getLogger(BulkExecutor.class);
+
+    private final Client client;
+
+    private final int maxActions;
+
+    private final long maxBytes;
+
+    private final int concurrentRequests;
+
+    private final BulkRetryPolicy retryPolicy;
+
+    private final AdaptiveBulkController controller;
+
+    /**
+     * @param maxActions         max number of actions in a bulk request, -1 for no limit
+     * @param maxSize            max size of the actions in a bulk request, -1 for no limit
+     * @param concurrentRequests max number of bulk requests executing at the same time
+     */
+    public BulkExecutor(Client client, int maxActions, ByteSizeValue maxSize, int concurrentRequests) {
+        this(client, maxActions, maxSize, concurrentRequests, null);
+    }
+
+    /**
+     * @param maxActions         max number of actions in a bulk request, -1 for no limit
+     * @param maxSize            max size of the actions in a bulk request, -1 for no limit
+     * @param concurrentRequests max number of bulk requests executing at the same time
+     * @param retryPolicy        optional policy to retry rejected items
+     */
+    public BulkExecutor(Client client, int maxActions, ByteSizeValue maxSize, int concurrentRequests,
+                        @Nullable BulkRetryPolicy retryPolicy) {
+        this(client, maxActions, maxSize, concurrentRequests, retryPolicy, null);
+    }
+
+    /**
+     * @param maxActions         max number of actions in a bulk request, -1 for no limit. Ignored with a controller
+     * @param maxSize            max size of the actions in a bulk request, -1 for no limit
+     * @param concurrentRequests max number of bulk requests executing at the same time. Ignored with a controller
+     * @param retryPolicy        optional policy to retry rejected items
+     * @param controller         optional controller of the number of actions and concurrent requests
+     */
+    public BulkExecutor(Client client, int maxActions, ByteSizeValue maxSize, int concurrentRequests,
+                        @Nullable BulkRetryPolicy retryPolicy, @Nullable AdaptiveBulkController controller) {
+        this.client = client;
+        this.maxActions = maxActions;
+        this.maxBytes = maxSize.bytes();
+        this.concurrentRequests = Math.max(1, concurrentRequests);
+        this.retryPolicy = retryPolicy;
+        this.controller = controller;
+    }
+
+    /**
+     * @return controller of the number of actions and concurrent requests, null if not adaptive
+     */
+    public AdaptiveBulkController getController() {
+        return controller;
+    }
+
+    /**
+     * Execute the bulk request and wait for the merged response
+     */
+    public OsemBulkResponse execute(BulkRequest request) {
+        PlainActionFuture<OsemBulkResponse> future = PlainActionFuture.newFuture();
+        execute(request, future);
+        return future.actionGet();
+    }
+
+    /**
+     * Execute the bulk request without blocking, the listener is notified with the merged response
+     */
+    public void execute(BulkRequest request, ActionListener<? super OsemBulkResponse> listener) {
+        new Execution(request, listener).start();
+    }
+
+    /**
+     * Split the bulk request by max number of actions and max size
+     *
+     * @return bulk requests in order, at least one
+     */
+    List<BulkRequest> split(BulkRequest request) {
+        List<BulkRequest> requests = new ArrayList<BulkRequest>();
+        int from = 0;
+        do {
+            BulkRequest current = nextRequest(request, from);
+            requests.add(current);
+            from += current.numberOfActions();
+        } while (from < request.numberOfActions());
+        return requests;
+    }
+
+    /**
+     * @return request of the actions from the position until the max number of actions or max size is reached
+     */
+    private BulkRequest nextRequest(BulkRequest request, int from) {
+        List<ActionRequest> actions = request.requests();
+        int limit = controller == null ? maxActions : controller.getBatchSize();
+        BulkRequest current = newRequest(request);
+        for (int i = from; i < actions.size(); i++) {
+            if (current.numberOfActions() > 0 && isFull(current, limit)) {
+                break;
+            }
+            current.add(actions.get(i));
+        }
+        return current;
+    }
+
+    private boolean isFull(BulkRequest request, int limit) {
+        return (limit > 0 && request.numberOfActions() >= limit)
+                || (maxBytes > 0 && request.estimatedSizeInBytes() >= maxBytes);
+    }
+
+    private int getConcurrentRequests() {
+        return controller == null ? concurrentRequests : controller.getConcurrentRequests();
+    }
+
+    private static BulkRequest newRequest(BulkRequest original) {
+        BulkRequest request = new BulkRequest();
+        request.refresh(original.refresh());
+        request.consistencyLevel(original.consistencyLevel());
+        request.replicationType(original.replicationType());
+        request.timeout(original.timeout());
+        return request;
+    }
+
+    /**
+     * Build item response with the item id of the merged response
+     */
+    static BulkItemResponse withItemId(BulkItemResponse item, int itemId) {
+        if (item.getItemId() == itemId) {
+            return item;
+        }
+        if (item.isFailed()) {
+            return new BulkItemResponse(itemId, item.getOpType(), item.getFailure());
+        }
+        return new BulkItemResponse(itemId, item.getOpType(), (ActionResponse) item.getResponse());
+    }
+
+
+    /**
+     * One execution of a bulk request: the request is split and executed, then the rejected items are retried in further
+     * rounds according to the retry policy
+     */
+    private class Execution {
+
+        private final List<ActionRequest> actions;
+
+        private final BulkRequest original;
+
+        private final ActionListener<? super OsemBulkResponse> listener;
+
+        private final BulkItemResponse[] items;
+
+        private final List<BulkItemResponse> droppedItems = new ArrayList<BulkItemResponse>();
+
+        private final AtomicInteger numberOfRequests = new AtomicInteger();
+
+        private final AtomicBoolean failed = new AtomicBoolean();
+
+        private final long startTime = System.currentTimeMillis();
+
+        private int retries = 0;
+
+        private int retryBudget;
+
+        private Execution(BulkRequest original, ActionListener<? super OsemBulkResponse> listener) {
+            this.original = original;
+            this.actions = original.requests();
+            this.listener = listener;
+            this.items = new BulkItemResponse[actions.size()];
+            this.retryBudget = retryPolicy == null ? 0 : retryPolicy.getRetryBudget(actions.size());
+        }
+
+        void start() {
+            int[] positions = new int[actions.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = i;
+            }
+            new Round(original, positions, 0).start();
+        }
+
+        /**
+         * Retry the rejected items of the round if allowed by the retry policy, otherwise finish the execution
+         */
+        private void onRoundDone(int[] positions, int attempt) {
+            if (failed.get()) {
+                return;
+            }
+            List<Integer> rejected = new ArrayList<Integer>();
+            for (int position : positions) {
+                if (BulkRetryPolicy.isRejected(items[position])) {
+                    rejected.add(position);
+                }
+            }
+            if (rejected.isEmpty()) {
+                finish();
+                return;
+            }
+            int retryCount = attempt < (retryPolicy == null ? 0 : retryPolicy.getMaxRetries()) ? Math.min(rejected.size(), retryBudget) : 0;
+            for (int i = retryCount; i < rejected.size(); i++) {
+                droppedItems.add(items[rejected.get(i)]);
+            }
+            if (retryCount == 0) {
+                finish();
+                return;
+            }
+            retryBudget -= retryCount;
+            retries += retryCount;
+
+            final BulkRequest retryRequest = newRequest(original);
+            final int[] retryPositions = new int[retryCount];
+            for (int i = 0; i < retryCount; i++) {
+                retryPositions[i] = rejected.get(i);
+                retryRequest.add(actions.get(retryPositions[i]));
+            }
+            final int retryAttempt = attempt + 1;
+            long backoff = retryPolicy.getBackoffMillis(retryAttempt);
+            logger.debug("Retry {} rejected bulk items in {}ms, attempt {}", retryCount, backoff, retryAttempt);
+            try {
+                Scheduler.INSTANCE.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        new Round(retryRequest, retryPositions, retryAttempt).start();
+                    }
+                }, backoff, TimeUnit.MILLISECONDS);
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+
+        private void finish() {
+            if (!droppedItems.isEmpty()) {
+                logger.warn("Dropped {} of {} bulk items rejected by ElasticSearch, {} retries", droppedItems.size(),
+                        actions.size(), retries);
+            }
+            OsemBulkResponse response;
+            try {
+                response = new OsemBulkResponse(items, System.currentTimeMillis() - startTime, numberOfRequests.get(),
+                        droppedItems, retries);
+            } catch (Throwable e) {
+                fail(e);
+                return;
+            }
+            listener.onResponse(response);
+        }
+
+        /**
+         * Fail the execution once, requests already sent complete without being reported
+         */
+        private void fail(Throwable e) {
+            if (failed.compareAndSet(false, true)) {
+                listener.onFailure(e);
+            }
+        }
+
+
+        /**
+         * Execute the requests of a round, the request is split when the next request is sent and the next request is
+         * sent when a request completes
+         */
+        private class Round {
+
+            private final BulkRequest request;
+
+            private final int[] positions;
+
+            private final int attempt;
+
+            /**
+             * Position in the round of the first action not sent yet, guarded by this
+             */
+            private int nextAction = 0;
+
+            /**
+             * Number of requests sent and not completed, guarded by this
+             */
+            private int running = 0;
+
+            private int sentRequests = 0;
+
+            private boolean done = false;
+
+            /**
+             * @param request   request of the round
+             * @param positions position of each action of the request in the whole execution
+             * @param attempt   0 for the first round, number of the retry for further rounds
+             */
+            private Round(BulkRequest request, int[] positions, int attempt) {
+                this.request = request;
+                this.positions = positions;
+                this.attempt = attempt;
+            }
+
+            void start() {
+                executeMore();
+            }
+
+            /**
+             * Send requests until the max number of concurrent requests is reached, finish the round once all are done
+             */
+            private void executeMore() {
+                while (true) {
+                    int offset;
+                    BulkRequest next;
+                    synchronized (this) {
+                        if (failed.get()) {
+                            return;
+                        }
+                        if (nextAction < request.numberOfActions()) {
+                            if (running >= getConcurrentRequests()) {
+                                return;
+                            }
+                            offset = nextAction;
+                            next = nextRequest(request, offset);
+                            nextAction += next.numberOfActions();
+                            running++;
+                            sentRequests++;
+                        } else {
+                            if (running > 0 || done) {
+                                return;
+                            }
+                            done = true;
+                            if (sentRequests > 1) {
+                                logger.debug("Split bulk request with {} actions into {} requests", request.numberOfActions(), sentRequests);
+                            }
+                            next = null;
+                            offset = 0;
+                        }
+                    }
+                    if (next == null) {
+                        onRoundDone(positions, attempt);
+                        return;
+                    }
+                    execute(offset, next);
+                }
+            }
+
+            private void execute(final int offset, final BulkRequest request) {
+                numberOfRequests.incrementAndGet();
+                client.bulk(request, new ActionListener<BulkResponse>() {
+                    @Override
+                    public void onResponse(BulkResponse response) {
+                        onRequestDone(offset, response.getItems(), response.getTookInMillis());
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        if (controller != null) {
+                            controller.onFailure(request.numberOfActions());
+                        }
+                        fail(e);
+                    }
+                });
+            }
+
+            private void onRequestDone(int offset, BulkItemResponse[] requestItems, long tookMillis) {
+                int rejected = 0;
+                for (int i = 0; i < requestItems.length; i++) {
+                    int position = positions[offset + i];
+                    items[position] = withItemId(requestItems[i], position);
+                    if (BulkRetryPolicy.isRejected(requestItems[i])) {
+                        rejected++;
+                    }
+                }
+                if (controller != null) {
+                    controller.onResponse(requestItems.length, tookMillis, rejected);
+                }
+                synchronized (this) {
+                    running--;
+                }
+                executeMore();
+            }
+        }
+    }
+
+
+    /**
+     * Lazy holder of the scheduler of retries, its thread is only kept alive while retries are scheduled
+     */
+    private static class Scheduler {
+        private static final ScheduledThreadPoolExecutor INSTANCE;
+
+        static {
+            INSTANCE = new ScheduledThreadPoolExecutor(1, EsExecutors.daemonThreadFactory("osem_bulk_retry"));
+            INSTANCE.setKeepAliveTime(1, TimeUnit.MINUTES);
+            INSTANCE.allowCoreThreadTimeOut(true);
+        }
+    }
+}
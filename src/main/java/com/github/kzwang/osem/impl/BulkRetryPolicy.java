@@ -0,0 +1,79 @@
+package com.github.kzwang.osem.impl;
+
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.rest.RestStatus;
+
+import java.util.Random;
+
+
+/**
+ * Policy to retry bulk items rejected by ElasticSearch because the bulk thread pool is full. Only the rejected items
+ * are sent again, after an exponential backoff with jitter
+ */
+public class BulkRetryPolicy {
+
+    private final int maxRetries;
+
+    private final TimeValue initialBackoff;
+
+    private final TimeValue maxBackoff;
+
+    private final float budget;
+
+    private final Random random = new Random();
+
+    /**
+     * @param maxRetries     max number of times an item is retried
+     * @param initialBackoff backoff before the first retry, doubled for each further retry
+     * @param maxBackoff     max backoff before a retry
+     * @param budget         max number of retried items of a bulk operation as ratio of the number of its items, rejected
+     *                       items exceeding the budget are dropped
+     */
+    public BulkRetryPolicy(int maxRetries, TimeValue initialBackoff, TimeValue maxBackoff, float budget) {
+        this.maxRetries = maxRetries;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.budget = budget;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param numberOfItems number of items of the bulk operation
+     * @return max number of item retries for the bulk operation
+     */
+    public int getRetryBudget(int numberOfItems) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.ceil(numberOfItems * (double) budget));
+    }
+
+    /**
+     * Backoff before the retry, grows exponentially up to max backoff and half of it is random, so rejected clients
+     * don't retry at the same time
+     *
+     * @param retry number of the retry, starting from 1
+     * @return backoff in milliseconds
+     */
+    public long getBackoffMillis(int retry) {
+        long backoff = initialBackoff.millis() << Math.min(retry - 1, 30);
+        if (backoff <= 0 || backoff > maxBackoff.millis()) {
+            backoff = maxBackoff.millis();
+        }
+        long half = backoff / 2;
+        return half + (half > 0 ? (long) (random.nextDouble() * (backoff - half)) : 0);
+    }
+
+    /**
+     * @return true if the item is rejected because the thread pool on ElasticSearch is full
+     */
+    public static boolean isRejected(BulkItemResponse item) {
+        if (!item.isFailed()) {
+            return false;
+        }
+        BulkItemResponse.Failure failure = item.getFailure();
+        return failure.getStatus() == RestStatus.SERVICE_UNAVAILABLE
+                && failure.getMessage() != null && failure.getMessage().contains("EsRejectedExecutionException");
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.kzwang.osem.impl;
+
+import org.elasticsearch.action.ActionListener;
+
+
+/**
+ * {@link ActionListener} which converts the response from ElasticSearch before passing it to the delegate listener,
+ * failures while converting are passed to {@link ActionListener#onFailure(Throwable)} of the delegate listener
+ *
+ * @param <Response> type of the response from ElasticSearch
+ * @param <T>        type of the converted response
+ */
+public abstract class ConvertingActionListener<Response, T> implements ActionListener<Response> {
+
+    private final ActionListener<T> delegate;
+
+    public ConvertingActionListener(ActionListener<T> delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Convert the response from ElasticSearch
+     *
+     * @param response response from ElasticSearch
+     * @return converted response
+     */
+    protected abstract T convert(Response response);
+
+    @Override
+    public void onResponse(Response response) {
+        T converted;
+        try {
+            converted = convert(response);
+        } catch (Throwable e) {
+            delegate.onFailure(e);
+            return;
+        }
+        delegate.onResponse(converted);
+    }
+
+    @Override
+    public void onFailure(Throwable e) {
+        delegate.onFailure(e);
+    }
+}
@@ -1,56 +1,275 @@
 package com.github.kzwang.osem.impl;
 
+import com.github.kzwang.osem.api.BulkStats;
+import com.github.kzwang.osem.api.DirtyTrackable;
 import com.github.kzwang.osem.api.ElasticSearchIndexer;
+import com.github.kzwang.osem.api.OsemBulkResponse;
 import com.github.kzwang.osem.cache.CacheType;
+import com.github.kzwang.osem.cache.InMemorySourceHashStore;
+import com.github.kzwang.osem.cache.MappedSourceHashStore;
+import com.github.kzwang.osem.cache.MappingKey;
 import com.github.kzwang.osem.cache.OsemCache;
+import com.github.kzwang.osem.cache.SourceHashStore;
 import com.github.kzwang.osem.exception.ElasticSearchOsemException;
+import com.github.kzwang.osem.inject.OsemSettings;
 import com.github.kzwang.osem.processor.MappingProcessor;
 import com.github.kzwang.osem.processor.ObjectProcessor;
-import org.elasticsearch.action.admin.cluster.state.ClusterStateResponse;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.ListenableActionFuture;
 import org.elasticsearch.action.admin.indices.alias.IndicesAliasesResponse;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexResponse;
 import org.elasticsearch.action.admin.indices.mapping.delete.DeleteMappingResponse;
+import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsResponse;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingResponse;
 import org.elasticsearch.action.admin.indices.refresh.RefreshResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequestBuilder;
 import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.deletebyquery.DeleteByQueryResponse;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.action.support.PlainListenableActionFuture;
+import org.elasticsearch.action.update.UpdateRequestBuilder;
+import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.Client;
-import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.metadata.MappingMetaData;
-import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.Preconditions;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
 import org.elasticsearch.common.hppc.cursors.ObjectCursor;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.index.VersionType;
 import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.indices.IndexMissingException;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class ElasticSearchIndexerImpl implements ElasticSearchIndexer {
 
     private static final ESLogger logger = Loggers.getLogger(ElasticSearchIndexerImpl.class);
 
+    /**
+     * Min number of objects converted by one task of the conversion executor
+     */
+    private static final int MIN_CONVERSION_SLICE_SIZE = 64;
+
+    /**
+     * Number of objects of a window of {@link #bulkIndex(Iterator, ActionListener)} if "osem.bulk.actions" is not set
+     */
+    private static final int DEFAULT_WINDOW_SIZE = 1000;
+
     private Client client;
 
     private OsemCache cache;
 
     private ObjectProcessor objectProcessor;
 
-    private String indexName = null;
+    private OsemSettings settings;
+
+    private volatile String indexName = null;
+
+    /**
+     * Whether the index name is fixed, true for indexers returned by {@link #forIndex(String)}
+     */
+    private final boolean fixedIndexName;
+
+    /**
+     * Indexers bound to an index, shared by all indexers created from the same root indexer
+     */
+    private final ConcurrentMap<String, ElasticSearchIndexerImpl> indexViews;
+
+    private final BulkExecutor bulkExecutor;
+
+    /**
+     * Executor to convert objects of a bulk operation in parallel, null to convert on the calling thread
+     */
+    private final ExecutorService conversionExecutor;
+
+    /**
+     * Hashes of indexed sources to skip unchanged objects in bulk index, null to always index
+     */
+    private final SourceHashStore sourceHashStore;
+
+    /**
+     * Spool of index and delete requests written while the cluster is unavailable, null to fail such requests
+     */
+    private final WriteAheadSpool spool;
+
+    private volatile BulkProcessor bulkProcessor;
+
+    private TrackingBulkListener bulkProcessorListener;
 
 
     public ElasticSearchIndexerImpl(Client client, String indexName) {
+        this(client, indexName, new ObjectProcessor());
+    }
+
+    /**
+     * @param objectProcessor processor to (de)serialize objects, can be shared with other indexers and searchers
+     */
+    public ElasticSearchIndexerImpl(Client client, String indexName, ObjectProcessor objectProcessor) {
+        this(client, indexName, objectProcessor, OsemCache.getInstance(), OsemSettings.DEFAULT, null, null, null, null);
+    }
+
+    /**
+     * Use {@link com.github.kzwang.osem.inject.ElasticSearchOsemFactory} to create the optional components from the
+     * settings and share them between indexers
+     *
+     * @param objectProcessor    processor to (de)serialize objects, can be shared with other indexers and searchers
+     * @param cache              cache of mappings
+     * @param settings           osem settings
+     * @param conversionExecutor optional executor to convert objects of bulk operations in parallel
+     * @param sourceHashStore    optional store of source hashes, bulk index skips objects unchanged since they were
+     *                           last indexed
+     * @param spool              optional spool of {@link #index(Object)} and {@link #delete(Object)} requests written
+     *                           while the cluster is unavailable
+     * @param bulkController     optional controller tuning the size and concurrency of bulk requests
+     */
+    public ElasticSearchIndexerImpl(Client client, String indexName, ObjectProcessor objectProcessor, OsemCache cache,
+                                    OsemSettings settings, @Nullable ExecutorService conversionExecutor,
+                                    @Nullable SourceHashStore sourceHashStore, @Nullable WriteAheadSpool spool,
+                                    @Nullable AdaptiveBulkController bulkController) {
+        this(client, indexName, objectProcessor, cache, settings, conversionExecutor, sourceHashStore, spool,
+                bulkController, false, ConcurrentCollections.<String, ElasticSearchIndexerImpl>newConcurrentMap());
+    }
+
+    private ElasticSearchIndexerImpl(Client client, String indexName, ObjectProcessor objectProcessor, OsemCache cache,
+                                     OsemSettings settings, @Nullable ExecutorService conversionExecutor,
+                                     @Nullable SourceHashStore sourceHashStore, @Nullable WriteAheadSpool spool,
+                                     @Nullable AdaptiveBulkController bulkController, boolean fixedIndexName,
+                                     ConcurrentMap<String, ElasticSearchIndexerImpl> indexViews) {
         this.client = client;
         this.indexName = indexName;
-        cache = OsemCache.getInstance();
-        objectProcessor = new ObjectProcessor();
+        this.cache = cache;
+        this.objectProcessor = objectProcessor;
+        this.settings = settings;
+        this.conversionExecutor = conversionExecutor;
+        this.sourceHashStore = sourceHashStore;
+        this.spool = spool;
+        this.fixedIndexName = fixedIndexName;
+        this.indexViews = indexViews;
+        this.bulkExecutor = newBulkExecutor(client, settings, bulkController);
+    }
+
+    private static BulkExecutor newBulkExecutor(Client client, OsemSettings settings,
+                                                @Nullable AdaptiveBulkController controller) {
+        BulkRetryPolicy retryPolicy = null;
+        if (settings.getBulkRetryMaxRetries() > 0) {
+            retryPolicy = new BulkRetryPolicy(settings.getBulkRetryMaxRetries(), settings.getBulkRetryInitialBackoff(),
+                    settings.getBulkRetryMaxBackoff(), settings.getBulkRetryBudget());
+        }
+        return new BulkExecutor(client, settings.getBulkActions(), settings.getBulkSize(),
+                settings.getBulkSplitConcurrentRequests(), retryPolicy, controller);
+    }
+
+    @Override
+    public BulkStats getBulkStats() {
+        return bulkExecutor.getController();
+    }
+
+    /**
+     * Create the controller tuning the bulk operations, to be shared by all indexers of a client
+     *
+     * @return the controller, null if "osem.bulk.adaptive.enabled" is not set
+     */
+    public static AdaptiveBulkController newBulkController(OsemSettings settings) {
+        if (!settings.isBulkAdaptiveEnabled()) {
+            return null;
+        }
+        return new AdaptiveBulkController(settings.getBulkAdaptiveTargetLatency(), settings.getBulkAdaptiveMinActions(),
+                settings.getBulkAdaptiveMaxActions(), settings.getBulkActions(),
+                settings.getBulkAdaptiveMaxConcurrentRequests(), settings.getBulkSplitConcurrentRequests());
+    }
+
+    /**
+     * Create the executor to convert objects of bulk operations, its threads are daemon threads which are stopped when idle
+     *
+     * @return the executor, null if "osem.bulk.conversion.threads" is not greater than 1
+     */
+    public static ExecutorService newConversionExecutor(OsemSettings settings) {
+        int threads = settings.getBulkConversionThreads();
+        if (threads <= 1) {
+            return null;
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<Runnable>(), EsExecutors.daemonThreadFactory("osem_bulk_conversion"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Create the store of source hashes configured by "osem.source_hash.store"
+     *
+     * @return the store, null if disabled
+     */
+    public static SourceHashStore newSourceHashStore(OsemSettings settings) {
+        String type = settings.getSourceHashStore();
+        if ("memory".equals(type)) {
+            return new InMemorySourceHashStore();
+        } else if ("mmap".equals(type)) {
+            if (settings.getSourceHashPath() == null) {
+                throw new ElasticSearchOsemException("osem.source_hash.path is required by the mmap source hash store");
+            }
+            return new MappedSourceHashStore(new File(settings.getSourceHashPath()), settings.getSourceHashCapacity());
+        } else if (type == null || "none".equals(type)) {
+            return null;
+        }
+        throw new ElasticSearchOsemException("Unknown source hash store [" + type + "]");
+    }
+
+    /**
+     * Open the spool configured by "osem.spool.path" and replay it every "osem.spool.replay_interval" with the client.
+     * The spool file must not be opened twice
+     *
+     * @return the spool, null if disabled
+     */
+    public static WriteAheadSpool newSpool(Client client, OsemSettings settings) {
+        if (settings.getSpoolPath() == null) {
+            return null;
+        }
+        WriteAheadSpool spool = new WriteAheadSpool(new File(settings.getSpoolPath()), settings.getSpoolSize(),
+                settings.getSpoolSyncInterval());
+        spool.startReplay(client, settings.getBulkActions(), settings.getSpoolReplayInterval());
+        return spool;
     }
 
     @Override
@@ -60,9 +279,27 @@ public class ElasticSearchIndexerImpl implements ElasticSearchIndexer {
 
     @Override
     public void setIndexName(String indexName) {
+        if (fixedIndexName) {
+            throw new UnsupportedOperationException("Index name of indexer for index [" + this.indexName + "] can't be changed");
+        }
         this.indexName = indexName;
     }
 
+    @Override
+    public ElasticSearchIndexer forIndex(String indexName) {
+        Preconditions.checkNotNull(indexName, "index name can't be null");
+        ElasticSearchIndexerImpl indexer = indexViews.get(indexName);
+        if (indexer == null) {
+            indexer = new ElasticSearchIndexerImpl(client, indexName, objectProcessor, cache, settings, conversionExecutor,
+                    sourceHashStore, spool, bulkExecutor.getController(), true, indexViews);
+            ElasticSearchIndexerImpl existing = indexViews.putIfAbsent(indexName, indexer);
+            if (existing != null) {
+                indexer = existing;
+            }
+        }
+        return indexer;
+    }
+
     @Override
     public PutMappingResponse createMapping(Class clazz) {
         String mapping = MappingProcessor.getMappingAsJson(clazz);
@@ -71,17 +308,26 @@ public class ElasticSearchIndexerImpl implements ElasticSearchIndexer {
 
     @Override
     public PutMappingResponse putMapping(Class clazz, String mapping) {
+        return putMapping(getIndexName(), clazz, mapping);
+    }
+
+    private PutMappingResponse putMapping(String indexName, Class clazz, String mapping) {
         String typeName = MappingProcessor.getIndexTypeName(clazz);
 
         if (logger.isDebugEnabled()) {
-            logger.debug("Put mapping for class: {}, type: {}, mapping: {}", clazz.getSimpleName(), typeName, mapping);
+            logger.debug("Put mapping for class: {}, index: {}, type: {}, mapping: {}", clazz.getSimpleName(), indexName, typeName, mapping);
         }
 
-        PutMappingResponse response = client.admin().indices().preparePutMapping(getIndexName()).setType(typeName).setSource(mapping).get();
+        PutMappingResponse response = client.admin().indices().preparePutMapping(indexName).setType(typeName).setSource(mapping).get();
 
-        if (!cache.isExist(CacheType.MAPPING, clazz)) {
-            cache.putCache(CacheType.MAPPING, clazz, mapping);
+        MappingKey key = new MappingKey(indexName, clazz);
+        cache.removeCache(CacheType.MAPPING, key);  // mapping on server is merged with the new mapping, get it again
+        if (!cache.isExist(CacheType.MAPPING_REGISTRATION, key)) {
+            SettableFuture<Void> registration = SettableFuture.create();
+            registration.set(null);
+            cache.putCacheIfAbsent(CacheType.MAPPING_REGISTRATION, key, registration);
         }
+        objectProcessor.register(clazz);
 
         return response;
 
@@ -97,7 +343,10 @@ public class ElasticSearchIndexerImpl implements ElasticSearchIndexer {
 
         if (client.admin().indices().prepareTypesExists(getIndexName()).setTypes(typeName).get().isExists()) {
             DeleteMappingResponse response = client.admin().indices().prepareDeleteMapping(getIndexName()).setType(typeName).get();
-            cache.removeCache(CacheType.MAPPING, clazz);
+            MappingKey key = new MappingKey(getIndexName(), clazz);
+            cache.removeCache(CacheType.MAPPING, key);
+            cache.removeCache(CacheType.MAPPING_REGISTRATION, key);
+            clearSourceHashes(getIndexName(), typeName);
             return response;
         }
 
@@ -106,22 +355,45 @@ public class ElasticSearchIndexerImpl implements ElasticSearchIndexer {
 
     @Override
     public String getMapping(Class clazz) {
+        return getMapping(getIndexName(), clazz);
+    }
+
+    private String getMapping(String indexName, Class clazz) {
         String typeName = MappingProcessor.getIndexTypeName(clazz);
         if (logger.isDebugEnabled()) {
-            logger.debug("Get mapping for class: {}, type: {}", clazz.getSimpleName(), typeName);
-        }
-        ClusterStateResponse response = client.admin().cluster().prepareState().setIndices(getIndexName()).get();
-        MetaData metaData = response.getState().metaData();
-        if (metaData.iterator().hasNext()) {
-            IndexMetaData indexMetaData = metaData.iterator().next();
-            for (ObjectCursor<MappingMetaData> cursor : indexMetaData.mappings().values()) {
-                MappingMetaData mappingMd = cursor.value;
-                if (mappingMd.type().equals(typeName)) {
-                    try {
-                        return mappingMd.source().string();
-                    } catch (IOException e) {
-                        logger.error("Failed convert mapping to string", e);
+            logger.debug("Get mapping for class: {}, index: {}, type: {}", clazz.getSimpleName(), indexName, typeName);
+        }
+        MappingKey key = new MappingKey(indexName, clazz);
+        CachedMapping cached = (CachedMapping) cache.getCache(CacheType.MAPPING, key);
+        if (cached != null && !cached.isExpired()) {
+            return cached.mapping;
+        }
+
+        GetMappingsResponse response;
+        try {
+            response = client.admin().indices().prepareGetMappings(indexName).setTypes(typeName).get();
+        } catch (IndexMissingException e) {
+            return null;
+        }
+        return readMapping(key, typeName, response);
+    }
+
+    /**
+     * @return mapping of the type in the response, cached if found. Null if not found
+     */
+    private String readMapping(MappingKey key, String typeName, GetMappingsResponse response) {
+        for (ObjectCursor<ImmutableOpenMap<String, MappingMetaData>> indexMappings : response.getMappings().values()) {
+            MappingMetaData mappingMd = indexMappings.value.get(typeName);
+            if (mappingMd != null) {
+                try {
+                    String mapping = mappingMd.source().string();
+                    long ttl = settings.getMappingCacheTtl().nanos();
+                    if (ttl > 0) {
+                        cache.putCache(CacheType.MAPPING, key, new CachedMapping(mapping, System.nanoTime() + ttl));
                     }
+                    return mapping;
+                } catch (IOException e) {
+                    logger.error("Failed convert mapping to string", e);
                 }
             }
         }
@@ -129,7 +401,217 @@ public class ElasticSearchIndexerImpl implements ElasticSearchIndexer {
         return null;
     }
 
+    /**
+     * Make sure the mapping of the class exists in the index, created if not exist on server.
+     * The check is done once per index and class, concurrent callers wait for the same check
+     */
+    private void ensureMapping(String indexName, Class clazz) {
+        try {
+            registerMapping(indexName, clazz).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ElasticSearchOsemException("Interrupted while waiting for mapping of " + new MappingKey(indexName, clazz), e);
+        } catch (ExecutionException e) {
+            throw new ElasticSearchOsemException("Failed to create mapping of " + new MappingKey(indexName, clazz), e.getCause());
+        }
+    }
+
+    /**
+     * Register the mapping of the class in the index, created if not exist on server. The registration is done once per
+     * index and class without blocking the caller, concurrent callers get the same registration
+     *
+     * @return future completed once the mapping exists
+     */
+    private ListenableFuture<Void> registerMapping(final String indexName, final Class clazz) {
+        final MappingKey key = new MappingKey(indexName, clazz);
+        SettableFuture<Void> registration = (SettableFuture<Void>) cache.getCache(CacheType.MAPPING_REGISTRATION, key);
+        if (registration != null) {
+            return registration;
+        }
+        final SettableFuture<Void> newRegistration = SettableFuture.create();
+        registration = (SettableFuture<Void>) cache.putCacheIfAbsent(CacheType.MAPPING_REGISTRATION, key, newRegistration);
+        if (registration != newRegistration) {
+            return registration;
+        }
+        // this thread starts the registration
+        final String typeName = MappingProcessor.getIndexTypeName(clazz);
+        CachedMapping cached = (CachedMapping) cache.getCache(CacheType.MAPPING, key);
+        if (cached != null && !cached.isExpired()) {
+            onMappingRegistered(key, newRegistration);
+            return newRegistration;
+        }
+        client.admin().indices().prepareGetMappings(indexName).setTypes(typeName).execute(new ActionListener<GetMappingsResponse>() {
+            @Override
+            public void onResponse(GetMappingsResponse response) {
+                String mapping;
+                try {
+                    mapping = readMapping(key, typeName, response);
+                } catch (Throwable e) {
+                    onMappingFailure(key, newRegistration, e);
+                    return;
+                }
+                if (mapping == null) {  // mapping not exist on server
+                    putMappingAsync(key, typeName, newRegistration);
+                } else {
+                    onMappingRegistered(key, newRegistration);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                if (ExceptionsHelper.unwrapCause(e) instanceof IndexMissingException) {
+                    putMappingAsync(key, typeName, newRegistration);
+                } else {
+                    onMappingFailure(key, newRegistration, e);
+                }
+            }
+        });
+        return newRegistration;
+    }
+
+    private void putMappingAsync(final MappingKey key, String typeName, final SettableFuture<Void> registration) {
+        final Class clazz = key.getMappedClass();
+        String mapping;
+        try {
+            mapping = MappingProcessor.getMappingAsJson(clazz);
+        } catch (Throwable e) {
+            onMappingFailure(key, registration, e);
+            return;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Put mapping for class: {}, index: {}, type: {}, mapping: {}", clazz.getSimpleName(), key.getIndexName(), typeName, mapping);
+        }
+        client.admin().indices().preparePutMapping(key.getIndexName()).setType(typeName).setSource(mapping)
+                .execute(new ActionListener<PutMappingResponse>() {
+                    @Override
+                    public void onResponse(PutMappingResponse response) {
+                        cache.removeCache(CacheType.MAPPING, key);  // mapping on server is merged with the new mapping
+                        onMappingRegistered(key, registration);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        onMappingFailure(key, registration, e);
+                    }
+                });
+    }
+
+    private void onMappingRegistered(MappingKey key, SettableFuture<Void> registration) {
+        try {
+            objectProcessor.register(key.getMappedClass());
+        } catch (Throwable e) {
+            onMappingFailure(key, registration, e);
+            return;
+        }
+        registration.set(null);
+    }
+
+    private void onMappingFailure(MappingKey key, SettableFuture<Void> registration, Throwable e) {
+        cache.removeCache(CacheType.MAPPING_REGISTRATION, key, registration);  // allow retry
+        registration.setException(e);
+    }
+
+    private void ensureMappings(Object[] objects) {
+        String indexName = getIndexName();
+        for (Class clazz : getMappedClasses(objects)) {
+            ensureMapping(indexName, clazz);
+        }
+    }
+
+    /**
+     * @return distinct classes of the objects, objects which are already requests are skipped
+     */
+    private static Set<Class> getMappedClasses(Object[] objects) {
+        Set<Class> classes = new HashSet<Class>();
+        for (Object object : objects) {
+            if (object != null && !(object instanceof ActionRequestBuilder)) {
+                classes.add(object.getClass());
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Execute the request once the mappings of the classes of the objects are registered, the calling thread doesn't
+     * wait for the registrations
+     */
+    private <Response extends ActionResponse> void executeAfterMappings(Object[] objects, final ActionRequestBuilder<?, Response, ?> request,
+                                                                        final ActionListener<Response> listener) {
+        afterMappings(objects, listener, new Runnable() {
+            @Override
+            public void run() {
+                request.execute(listener);
+            }
+        });
+    }
+
+    /**
+     * Run the task once the mappings of the classes of the objects are registered, the listener is notified if a
+     * registration or the task fails
+     */
+    private void afterMappings(Object[] objects, final ActionListener<?> listener, final Runnable task) {
+        final String indexName = getIndexName();
+        Set<Class> classes = getMappedClasses(objects);
+        List<ListenableFuture<Void>> registrations = new ArrayList<ListenableFuture<Void>>(classes.size());
+        for (Class clazz : classes) {
+            registrations.add(registerMapping(indexName, clazz));
+        }
+        Futures.addCallback(Futures.allAsList(registrations), new FutureCallback<List<Void>>() {
+            @Override
+            public void onSuccess(List<Void> result) {
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    listener.onFailure(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                listener.onFailure(new ElasticSearchOsemException("Failed to create mapping in index " + indexName, e));
+            }
+        });
+    }
+
+    /**
+     * Remove all cached mappings of the index
+     */
+    private void clearMappingCache(String indexName) {
+        for (CacheType cacheType : new CacheType[]{CacheType.MAPPING, CacheType.MAPPING_REGISTRATION}) {
+            Iterator<Object> keys = cache.getKeys(cacheType).iterator();
+            while (keys.hasNext()) {
+                Object key = keys.next();
+                if (key instanceof MappingKey && ((MappingKey) key).getIndexName().equals(indexName)) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Index request written outside of bulk index, the source hash of the document is forgotten
+     */
     private IndexRequestBuilder getIndexRequest(Object object) {
+        IndexRequestBuilder indexRequestBuilder = buildIndexRequest(object);
+        ensureMapping(indexRequestBuilder.request().index(), object.getClass());
+        return indexRequestBuilder;
+    }
+
+    /**
+     * Index request written outside of bulk index without making sure the mapping exists, the source hash of the
+     * document is forgotten
+     */
+    private IndexRequestBuilder buildIndexRequest(Object object) {
+        IndexRequestBuilder indexRequestBuilder = buildIndexRequest(object, IndexRequest.OpType.INDEX);
+        forgetSourceHash(indexRequestBuilder.request().index(), indexRequestBuilder.request().type(), indexRequestBuilder.request().id());
+        return indexRequestBuilder;
+    }
+
+    /**
+     * Index request without making sure the mapping exists
+     */
+    private IndexRequestBuilder buildIndexRequest(Object object, IndexRequest.OpType opType) {
+        String indexName = getIndexName();
         Class objectClass = object.getClass();
         String typeName = MappingProcessor.getIndexTypeName(objectClass);
         Object objectId = objectProcessor.getIdValue(object);
@@ -137,17 +619,15 @@ public class ElasticSearchIndexerImpl implements ElasticSearchIndexer {
             throw new ElasticSearchOsemException("Unable to find object id");
         }
 
-        String objectJson = objectProcessor.toJsonString(object);
-
-        logger.debug("Get index object request, type:{}, id: {}, content: {}", typeName, objectId, objectJson);
+        BytesReference objectJson = objectProcessor.toJsonBytes(object);
 
-        if (!cache.isExist(CacheType.MAPPING, objectClass)) {  // check mapping exist in cache or not
-            if (getMapping(objectClass) == null) {  // mapping not exist on server
-                createMapping(objectClass);  // create mapping first
-            }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Get index object request, type:{}, id: {}, content: {}", typeName, objectId, objectJson.toUtf8());
         }
-        IndexRequestBuilder indexRequestBuilder = client.prepareIndex(getIndexName(), typeName, objectId.toString());
+
+        IndexRequestBuilder indexRequestBuilder = client.prepareIndex(indexName, typeName, objectId.toString());
         indexRequestBuilder.setSource(objectJson);
+        indexRequestBuilder.setOpType(opType);
         String routing = objectProcessor.getRoutingId(object);
         if (routing != null) {
             indexRequestBuilder.setRouting(routing);
@@ -156,29 +636,522 @@ public class ElasticSearchIndexerImpl implements ElasticSearchIndexer {
         if (parent != null) {
             indexRequestBuilder.setParent(parent);
         }
+        Long version = objectProcessor.getVersion(object);
+        if (version != null) {
+            indexRequestBuilder.setVersion(version).setVersionType(VersionType.EXTERNAL);
+        }
         return indexRequestBuilder;
     }
 
     @Override
     public IndexResponse index(Object object) {
-        return getIndexRequest(object).get();
+        if (spool == null) {
+            return getIndexRequest(object).get();
+        }
+        IndexRequestBuilder indexRequestBuilder = buildIndexRequest(object);
+        IndexRequest request = indexRequestBuilder.request();
+        if (spool.isEmpty()) {  // requests are spooled until the spool is drained to keep them in order
+            try {
+                ensureMapping(request.index(), object.getClass());
+                return indexRequestBuilder.get();
+            } catch (RuntimeException e) {
+                if (!WriteAheadSpool.isUnavailable(e)) {
+                    throw e;
+                }
+                logger.debug("Cluster unavailable, spool index request of type: {}, id: {}", request.type(), request.id());
+            }
+        }
+        MappingKey key = new MappingKey(request.index(), object.getClass());
+        SettableFuture<Void> registration = (SettableFuture<Void>) cache.getCache(CacheType.MAPPING_REGISTRATION, key);
+        if (registration == null || !registration.isDone()) {
+            spool.appendMapping(request.index(), request.type(), MappingProcessor.getMappingAsJson(object.getClass()));
+        }
+        spool.append(request);
+        return null;
+    }
+
+    @Override
+    public ListenableActionFuture<IndexResponse> indexAsync(Object object) {
+        PlainListenableActionFuture<IndexResponse> future = new PlainListenableActionFuture<IndexResponse>(false, null);
+        indexAsync(object, future);
+        return future;
+    }
+
+    @Override
+    public void indexAsync(Object object, ActionListener<IndexResponse> listener) {
+        executeAfterMappings(new Object[]{object}, buildIndexRequest(object), listener);
+    }
+
+    @Override
+    public OsemBulkResponse bulkIndex(Object... objects) {
+        return executeBulkIndex(objects, prepareBulkIndex(objects));
+    }
+
+    @Override
+    public OsemBulkResponse bulkCreate(Object... objects) {
+        return bulkIndex(IndexRequest.OpType.CREATE, objects);
+    }
+
+    @Override
+    public OsemBulkResponse bulkIndex(IndexRequest.OpType opType, Object... objects) {
+        OsemBulkResponse response = executeBulkIndex(objects, prepareBulkIndex(opType, objects)).withConflictsSkipped();
+        logger.debug("Bulk {} {} objects, {} skipped", opType.lowercase(), response.getItems().length, response.getSkippedItems().size());
+        return response;
+    }
+
+    @Override
+    public long bulkIndex(Iterable<?> objects) {
+        return bulkIndex(objects.iterator(), null);
     }
 
     @Override
-    public BulkResponse bulkIndex(Object... objects) {
+    public long bulkIndex(Iterator<?> objects, @Nullable ActionListener<BulkResponse> listener) {
+        int windowSize = settings.getBulkActions() > 0 ? settings.getBulkActions() : DEFAULT_WINDOW_SIZE;
+        int maxWindows = Math.max(1, settings.getBulkConcurrentRequests());
+        Semaphore windows = new Semaphore(maxWindows);
+        AtomicLong failures = new AtomicLong();
+        long total = 0;
+        try {
+            List<Object> window = new ArrayList<Object>(windowSize);
+            while (objects.hasNext()) {
+                window.add(objects.next());
+                if (window.size() >= windowSize || !objects.hasNext()) {
+                    Object[] windowObjects = window.toArray();
+                    total += window.size();
+                    window.clear();
+                    windows.acquire();  // wait for a window to complete before converting more objects
+                    try {
+                        executeWindow(windowObjects, windows, failures, listener);
+                    } catch (RuntimeException e) {
+                        windows.release();  // not submitted, so never released by the window
+                        throw e;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ElasticSearchOsemException("Interrupted while waiting for bulk requests", e);
+        } finally {
+            windows.acquireUninterruptibly(maxWindows);  // wait for in-flight windows
+        }
+        logger.debug("Bulk indexed {} objects, {} failed", total, failures.get());
+        return failures.get();
+    }
+
+    /**
+     * Convert and submit a window of {@link #bulkIndex(Iterator, ActionListener)}, the window permit is released once
+     * the bulk request completes
+     */
+    private void executeWindow(Object[] windowObjects, final Semaphore windows, final AtomicLong failures,
+                               @Nullable final ActionListener<BulkResponse> listener) {
+        PreparedBulkIndex bulkIndex = prepareBulkIndex(windowObjects);
+        final int actions = bulkIndex.request.numberOfActions();
+        executeBulkIndex(windowObjects, bulkIndex, new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse response) {
+                try {
+                    for (BulkItemResponse item : response) {
+                        if (item.isFailed()) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                    if (listener != null) {
+                        listener.onResponse(response);
+                    }
+                } finally {
+                    windows.release();
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                try {
+                    logger.warn("Failed to execute bulk request of window", e);
+                    failures.addAndGet(actions);
+                    if (listener != null) {
+                        listener.onFailure(e);
+                    }
+                } finally {
+                    windows.release();
+                }
+            }
+        });
+    }
+
+    @Override
+    public ListenableActionFuture<BulkResponse> bulkIndexAsync(Object... objects) {
+        PlainListenableActionFuture<BulkResponse> future = new PlainListenableActionFuture<BulkResponse>(false, null);
+        bulkIndexAsync(future, objects);
+        return future;
+    }
+
+    @Override
+    public void bulkIndexAsync(ActionListener<BulkResponse> listener, Object... objects) {
+        executeBulkIndex(objects, prepareBulkIndex(objects), listener);
+    }
+
+    private OsemBulkResponse executeBulkIndex(Object[] objects, PreparedBulkIndex bulkIndex) {
+        if (bulkIndex.request.numberOfActions() > 0) {
+            ensureMappings(objects);  // mapping failures are thrown as is
+        }
+        PlainActionFuture<OsemBulkResponse> future = PlainActionFuture.newFuture();
+        executeBulkIndex(objects, bulkIndex, future);
+        return future.actionGet();
+    }
+
+    /**
+     * Execute the bulk index request of the objects, with a source hash store the hashes of the indexed documents are
+     * stored once the response is received
+     */
+    private void executeBulkIndex(final Object[] objects, final PreparedBulkIndex bulkIndex,
+                                  final ActionListener<? super OsemBulkResponse> listener) {
+        if (bulkIndex.request.numberOfActions() == 0) {  // all unchanged, no mapping needed
+            doExecuteBulkIndex(bulkIndex, listener);
+            return;
+        }
+        afterMappings(objects, listener, new Runnable() {
+            @Override
+            public void run() {
+                doExecuteBulkIndex(bulkIndex, listener);
+            }
+        });
+    }
+
+    private void doExecuteBulkIndex(PreparedBulkIndex bulkIndex, final ActionListener<? super OsemBulkResponse> listener) {
+        if (sourceHashStore == null) {
+            bulkExecutor.execute(bulkIndex.request, listener);
+            return;
+        }
+        final int unchanged = bulkIndex.unchanged;
+        final IndexedSource[] sources = bulkIndex.sources;
+        bulkExecutor.execute(bulkIndex.request, new ActionListener<OsemBulkResponse>() {
+            @Override
+            public void onResponse(OsemBulkResponse response) {
+                try {
+                    BulkItemResponse[] items = response.getItems();
+                    for (int i = 0; i < sources.length && i < items.length; i++) {
+                        IndexedSource source = sources[i];
+                        if (source != null) {
+                            sourceHashStore.put(source.indexName, source.typeName, source.id, items[i].isFailed() ? 0 : source.hash);
+                        }
+                    }
+                    if (unchanged > 0) {
+                        logger.debug("Skipped {} objects with unchanged source", unchanged);
+                    }
+                } catch (Throwable e) {
+                    listener.onFailure(e);
+                    return;
+                }
+                listener.onResponse(response.withUnchanged(unchanged));
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                for (IndexedSource source : sources) {
+                    if (source != null) {
+                        sourceHashStore.remove(source.indexName, source.typeName, source.id);
+                    }
+                }
+                listener.onFailure(e);
+            }
+        });
+    }
+
+    private PreparedBulkIndex prepareBulkIndex(Object... objects) {
+        return prepareBulkIndex(IndexRequest.OpType.INDEX, objects);
+    }
+
+    private PreparedBulkIndex prepareBulkIndex(IndexRequest.OpType opType, Object... objects) {
+        long startTime = System.nanoTime();
         BulkRequestBuilder bulkRequest = client.prepareBulk();
         logger.debug("Bulk index {} objects", objects.length);
+        IndexedSource[] objectSources = sourceHashStore == null ? null : new IndexedSource[objects.length];
+        IndexRequestBuilder[] indexRequests = getIndexRequests(objects, objectSources, opType);
+        IndexedSource[] sources = sourceHashStore == null ? null : new IndexedSource[objects.length];
+        int unchanged = 0;
+        for (int i = 0; i < indexRequests.length; i++) {
+            if (indexRequests[i] != null) {
+                if (sources != null) {
+                    sources[bulkRequest.numberOfActions()] = objectSources[i];
+                }
+                bulkRequest.add(indexRequests[i]);
+            } else if (objects[i] != null) {
+                unchanged++;
+            }
+        }
+        onSerialization(bulkRequest, startTime);
+        return new PreparedBulkIndex(bulkRequest.request(), sources, unchanged);
+    }
+
+    /**
+     * Report the time spent building the bulk request to the bulk controller
+     */
+    private void onSerialization(BulkRequestBuilder bulkRequest, long startTime) {
+        AdaptiveBulkController controller = bulkExecutor.getController();
+        if (controller != null) {
+            controller.onSerialization(bulkRequest.numberOfActions(), System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Convert objects to index requests, in parallel on the conversion executor if the objects are many
+     *
+     * @return index requests in the same order as the objects, null for null objects
+     */
+    private IndexRequestBuilder[] getIndexRequests(final Object[] objects, @Nullable final IndexedSource[] sources,
+                                                   final IndexRequest.OpType opType) {
+        final IndexRequestBuilder[] indexRequests = new IndexRequestBuilder[objects.length];
+        int slices = conversionExecutor == null ? 1 : Math.min(settings.getBulkConversionThreads(),
+                (objects.length + MIN_CONVERSION_SLICE_SIZE - 1) / MIN_CONVERSION_SLICE_SIZE);
+        if (slices <= 1) {
+            convert(objects, indexRequests, sources, 0, objects.length, opType);
+            return indexRequests;
+        }
+
+        int sliceSize = (objects.length + slices - 1) / slices;
+        List<Future<?>> futures = new ArrayList<Future<?>>(slices - 1);
+        for (int start = sliceSize; start < objects.length; start += sliceSize) {  // first slice is converted on this thread
+            final int from = start;
+            final int to = Math.min(start + sliceSize, objects.length);
+            futures.add(conversionExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    convert(objects, indexRequests, sources, from, to, opType);
+                }
+            }));
+        }
+        try {
+            convert(objects, indexRequests, sources, 0, sliceSize, opType);
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ElasticSearchOsemException("Interrupted while converting objects", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ElasticSearchOsemException("Failed to convert objects", e.getCause());
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(false);  // no-op if already done, skip remaining work after a failure
+            }
+        }
+        return indexRequests;
+    }
+
+    /**
+     * Convert the objects in the range, with a source hash store the source of each request is hashed once into the
+     * sources, and objects with an unchanged source are skipped
+     */
+    private void convert(Object[] objects, IndexRequestBuilder[] indexRequests, @Nullable IndexedSource[] sources,
+                         int from, int to, IndexRequest.OpType opType) {
+        for (int i = from; i < to; i++) {
+            Object object = objects[i];
+            IndexRequestBuilder indexRequest;
+            if (object instanceof IndexRequestBuilder) {
+                indexRequest = (IndexRequestBuilder) object;
+            } else if (object != null) {
+                indexRequest = buildIndexRequest(object, opType);  // mappings are registered before execution
+            } else {
+                continue;
+            }
+            IndexRequest request = indexRequest.request();
+            if (sources != null && request.id() != null) {
+                long hash = objectProcessor.hashSource(request.source());
+                if (!(object instanceof IndexRequestBuilder) && hash == sourceHashStore.get(request.index(), request.type(), request.id())) {
+                    continue;  // unchanged since last indexed
+                }
+                sources[i] = new IndexedSource(request.index(), request.type(), request.id(), hash);
+            }
+            indexRequests[i] = indexRequest;
+        }
+    }
+
+    /**
+     * @return update request with the partial document, null if the {@link DirtyTrackable} object has no changed properties.
+     * The mapping of the object must be registered before it's executed
+     */
+    private UpdateRequestBuilder getUpdateRequest(Object object, String... propertyNames) {
+        String indexName = getIndexName();
+        Class objectClass = object.getClass();
+        String typeName = MappingProcessor.getIndexTypeName(objectClass);
+        Object objectId = objectProcessor.getIdValue(object);
+        if (objectId == null) {
+            throw new ElasticSearchOsemException("Unable to find object id");
+        }
+
+        Collection<String> properties = Arrays.asList(propertyNames);
+        if (properties.isEmpty() && object instanceof DirtyTrackable) {
+            properties = ((DirtyTrackable) object).getDirtyFields();
+            if (properties == null || properties.isEmpty()) {
+                logger.debug("Skip update object without changed properties, type:{}, id: {}", typeName, objectId);
+                return null;
+            }
+        }
+        BytesReference partialJson = properties.isEmpty() ? objectProcessor.toJsonBytes(object)
+                : objectProcessor.toPartialJsonBytes(object, properties);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Get update object request, type:{}, id: {}, content: {}", typeName, objectId, partialJson.toUtf8());
+        }
+
+        UpdateRequestBuilder updateRequestBuilder = client.prepareUpdate(indexName, typeName, objectId.toString());
+        forgetSourceHash(indexName, typeName, objectId.toString());
+        BytesArray doc = partialJson.toBytesArray();
+        updateRequestBuilder.setDoc(doc.array(), doc.arrayOffset(), doc.length());
+        String routing = objectProcessor.getRoutingId(object);
+        if (routing != null) {
+            updateRequestBuilder.setRouting(routing);
+        }
+        String parent = objectProcessor.getParentId(object);
+        if (parent != null) {
+            updateRequestBuilder.setParent(parent);
+        }
+        return updateRequestBuilder;
+    }
+
+    @Override
+    public UpdateResponse update(Object object, String... propertyNames) {
+        UpdateRequestBuilder updateRequest = getUpdateRequest(object, propertyNames);
+        if (updateRequest == null) {
+            return null;
+        }
+        ensureMapping(updateRequest.request().index(), object.getClass());
+        UpdateResponse response = updateRequest.get();
+        if (propertyNames.length == 0) {
+            clearDirtyFields(object);
+        }
+        return response;
+    }
+
+    @Override
+    public ListenableActionFuture<UpdateResponse> updateAsync(final Object object, String... propertyNames) {
+        UpdateRequestBuilder updateRequest = getUpdateRequest(object, propertyNames);
+        final PlainListenableActionFuture<UpdateResponse> future = new PlainListenableActionFuture<UpdateResponse>(false, null);
+        if (updateRequest == null) {
+            future.onResponse(null);  // nothing changed
+            return future;
+        }
+        if (propertyNames.length > 0) {
+            executeAfterMappings(new Object[]{object}, updateRequest, future);
+            return future;
+        }
+        // changed properties are cleared before the future completes, so a following update doesn't send them again
+        executeAfterMappings(new Object[]{object}, updateRequest, new ActionListener<UpdateResponse>() {
+            @Override
+            public void onResponse(UpdateResponse response) {
+                try {
+                    clearDirtyFields(object);
+                } catch (Throwable e) {
+                    future.onFailure(e);
+                    return;
+                }
+                future.onResponse(response);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                future.onFailure(e);  // the changed properties are kept so the update can be retried
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public OsemBulkResponse bulkUpdate(Object... objects) {
+        List<Object> updated = new ArrayList<Object>(objects.length);
+        BulkRequest request = prepareBulkUpdate(objects, updated).request();
+        ensureMappings(updated.toArray());
+        OsemBulkResponse response = bulkExecutor.execute(request);
+        clearDirtyFields(updated, response);
+        return response;
+    }
+
+    @Override
+    public ListenableActionFuture<BulkResponse> bulkUpdateAsync(Object... objects) {
+        PlainListenableActionFuture<BulkResponse> future = new PlainListenableActionFuture<BulkResponse>(false, null);
+        executeBulkUpdate(objects, future);
+        return future;
+    }
+
+    /**
+     * Execute the bulk update once the mappings are registered, the changed properties of the objects updated
+     * successfully are cleared before the listener is notified
+     */
+    private void executeBulkUpdate(Object[] objects, final ActionListener<? super OsemBulkResponse> listener) {
+        final List<Object> updated = new ArrayList<Object>(objects.length);
+        final BulkRequest request = prepareBulkUpdate(objects, updated).request();
+        afterMappings(updated.toArray(), listener, new Runnable() {
+            @Override
+            public void run() {
+                bulkExecutor.execute(request, new ActionListener<OsemBulkResponse>() {
+                    @Override
+                    public void onResponse(OsemBulkResponse response) {
+                        clearDirtyFields(updated, response);
+                        listener.onResponse(response);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        listener.onFailure(e);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @param updated filled with the object of each update request in the bulk request
+     */
+    private BulkRequestBuilder prepareBulkUpdate(Object[] objects, List<Object> updated) {
+        BulkRequestBuilder bulkRequest = client.prepareBulk();
+        logger.debug("Bulk update {} objects", objects.length);
         for (Object object : objects) {
             if (object != null) {
-                if (object instanceof IndexRequestBuilder) {
-                    bulkRequest.add((IndexRequestBuilder) object);
-                } else {
-                    bulkRequest.add(getIndexRequest(object));
+                UpdateRequestBuilder updateRequest = object instanceof UpdateRequestBuilder
+                        ? (UpdateRequestBuilder) object : getUpdateRequest(object);
+                if (updateRequest != null) {
+                    bulkRequest.add(updateRequest);
+                    updated.add(object);
                 }
             }
         }
-        return bulkRequest.get();
+        return bulkRequest;
+    }
+
+    private static void clearDirtyFields(Object object) {
+        if (object instanceof DirtyTrackable) {
+            ((DirtyTrackable) object).clearDirtyFields();
+        }
+    }
+
+    /**
+     * Clear the changed properties of the objects updated successfully
+     */
+    private static void clearDirtyFields(List<Object> updated, BulkResponse response) {
+        BulkItemResponse[] items = response.getItems();
+        for (int i = 0; i < items.length && i < updated.size(); i++) {
+            if (!items[i].isFailed()) {
+                clearDirtyFields(updated.get(i));
+            }
+        }
+    }
+
+    private void forgetSourceHash(String indexName, String typeName, String id) {
+        if (sourceHashStore != null) {
+            sourceHashStore.remove(indexName, typeName, id);
+        }
+    }
 
+    /**
+     * @param typeName type of the deleted documents, null for all types of the index
+     */
+    private void clearSourceHashes(String indexName, @Nullable String typeName) {
+        if (sourceHashStore != null) {
+            sourceHashStore.clear(indexName, typeName);
+        }
     }
 
     private DeleteRequestBuilder getDeleteRequest(Object object) {
@@ -189,6 +1162,7 @@ public class ElasticSearchIndexerImpl implements ElasticSearchIndexer {
         }
         logger.debug("Get delete object request, type:{}, id: {}", typeName, objectId);
         DeleteRequestBuilder deleteRequestBuilder = client.prepareDelete(getIndexName(), typeName, objectId.toString());
+        forgetSourceHash(getIndexName(), typeName, objectId.toString());
         String routing = objectProcessor.getRoutingId(object);
         if (routing != null) {
             deleteRequestBuilder.setRouting(routing);
@@ -197,17 +1171,65 @@ public class ElasticSearchIndexerImpl implements ElasticSearchIndexer {
         if (parent != null) {
             deleteRequestBuilder.setParent(parent);
         }
+        Long version = objectProcessor.getVersion(object);
+        if (version != null) {
+            deleteRequestBuilder.setVersion(version).setVersionType(VersionType.EXTERNAL);
+        }
         return deleteRequestBuilder;
     }
 
     @Override
     public DeleteResponse delete(Object object) {
-        return getDeleteRequest(object).get();
+        DeleteRequestBuilder deleteRequestBuilder = getDeleteRequest(object);
+        if (spool == null) {
+            return deleteRequestBuilder.get();
+        }
+        if (spool.isEmpty()) {  // requests are spooled until the spool is drained to keep them in order
+            try {
+                return deleteRequestBuilder.get();
+            } catch (RuntimeException e) {
+                if (!WriteAheadSpool.isUnavailable(e)) {
+                    throw e;
+                }
+                logger.debug("Cluster unavailable, spool delete request of type: {}, id: {}",
+                        deleteRequestBuilder.request().type(), deleteRequestBuilder.request().id());
+            }
+        }
+        spool.append(deleteRequestBuilder.request());
+        return null;
     }
 
 
     @Override
-    public BulkResponse bulkDelete(Object... objects) {
+    public ListenableActionFuture<DeleteResponse> deleteAsync(Object object) {
+        return getDeleteRequest(object).execute();
+    }
+
+    @Override
+    public void deleteAsync(Object object, ActionListener<DeleteResponse> listener) {
+        getDeleteRequest(object).execute(listener);
+    }
+
+
+    @Override
+    public OsemBulkResponse bulkDelete(Object... objects) {
+        return bulkExecutor.execute(prepareBulkDelete(objects).request());
+    }
+
+    @Override
+    public ListenableActionFuture<BulkResponse> bulkDeleteAsync(Object... objects) {
+        PlainListenableActionFuture<BulkResponse> future = new PlainListenableActionFuture<BulkResponse>(false, null);
+        bulkDeleteAsync(future, objects);
+        return future;
+    }
+
+    @Override
+    public void bulkDeleteAsync(ActionListener<BulkResponse> listener, Object... objects) {
+        bulkExecutor.execute(prepareBulkDelete(objects).request(), listener);
+    }
+
+    private BulkRequestBuilder prepareBulkDelete(Object... objects) {
+        long startTime = System.nanoTime();
         BulkRequestBuilder bulkRequest = client.prepareBulk();
         logger.debug("Bulk delete {} objects", objects.length);
         for (Object object : objects) {
@@ -219,14 +1241,116 @@ public class ElasticSearchIndexerImpl implements ElasticSearchIndexer {
                 }
             }
         }
-        return bulkRequest.get();
+        onSerialization(bulkRequest, startTime);
+        return bulkRequest;
+    }
+
+    @Override
+    public synchronized void startBulkProcessor(int bulkActions, @Nullable ByteSizeValue bulkSize, @Nullable TimeValue flushInterval,
+                                                int concurrentRequests, @Nullable BulkProcessor.Listener listener) {
+        if (bulkProcessor != null) {
+            throw new ElasticSearchOsemException("Bulk processor already started for index: " + getIndexName());
+        }
+        logger.debug("Start bulk processor for index: {}, actions: {}, size: {}, flush interval: {}, concurrent requests: {}",
+                getIndexName(), bulkActions, bulkSize, flushInterval, concurrentRequests);
+        bulkProcessorListener = new TrackingBulkListener(listener);
+        bulkProcessor = BulkProcessor.builder(client, bulkProcessorListener)
+                .setBulkActions(bulkActions)
+                .setBulkSize(bulkSize != null ? bulkSize : new ByteSizeValue(-1))
+                .setFlushInterval(flushInterval)
+                .setConcurrentRequests(concurrentRequests)
+                .build();
+    }
+
+    @Override
+    public void startBulkProcessor(@Nullable BulkProcessor.Listener listener) {
+        startBulkProcessor(settings.getBulkActions(), settings.getBulkSize(), settings.getBulkFlushInterval(),
+                settings.getBulkConcurrentRequests(), listener);
+    }
+
+    @Override
+    public void queueIndex(Object object) {
+        if (object instanceof IndexRequestBuilder) {
+            getBulkProcessor().add(((IndexRequestBuilder) object).request());
+        } else {
+            getBulkProcessor().add(getIndexRequest(object).request());
+        }
+    }
+
+    @Override
+    public void queueDelete(Object object) {
+        if (object instanceof DeleteRequestBuilder) {
+            getBulkProcessor().add(((DeleteRequestBuilder) object).request());
+        } else {
+            getBulkProcessor().add(getDeleteRequest(object).request());
+        }
+    }
+
+    @Override
+    public synchronized void closeBulkProcessor() {
+        if (bulkProcessor != null) {
+            logger.debug("Close bulk processor for index: {}", getIndexName());
+            bulkProcessor.close();
+            bulkProcessor = null;
+            try {
+                bulkProcessorListener.awaitPending();  // close() doesn't wait for in-flight bulk requests
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ElasticSearchOsemException("Interrupted while waiting for bulk requests", e);
+            } finally {
+                bulkProcessorListener = null;
+            }
+        }
+    }
+
+    private BulkProcessor getBulkProcessor() {
+        BulkProcessor processor = bulkProcessor;
+        if (processor == null) {
+            throw new ElasticSearchOsemException("Bulk processor not started for index: " + getIndexName());
+        }
+        return processor;
     }
 
 
     @Override
     public DeleteByQueryResponse deleteByQuery(Class clazz, QueryBuilder queryBuilder) {
-        String typeName = MappingProcessor.getIndexTypeName(clazz);
-        return client.prepareDeleteByQuery(getIndexName()).setQuery(queryBuilder).setTypes(typeName).get();
+        PlainActionFuture<DeleteByQueryResponse> future = PlainActionFuture.newFuture();
+        deleteByQueryAsync(clazz, queryBuilder, future);
+        return future.actionGet();
+    }
+
+    @Override
+    public ListenableActionFuture<DeleteByQueryResponse> deleteByQueryAsync(Class clazz, QueryBuilder queryBuilder) {
+        PlainListenableActionFuture<DeleteByQueryResponse> future = new PlainListenableActionFuture<DeleteByQueryResponse>(false, null);
+        deleteByQueryAsync(clazz, queryBuilder, future);
+        return future;
+    }
+
+    @Override
+    public void deleteByQueryAsync(Class clazz, QueryBuilder queryBuilder, final ActionListener<DeleteByQueryResponse> listener) {
+        final String indexName = getIndexName();
+        final String typeName = MappingProcessor.getIndexTypeName(clazz);
+        client.prepareDeleteByQuery(indexName).setQuery(queryBuilder).setTypes(typeName).execute(new ActionListener<DeleteByQueryResponse>() {
+            @Override
+            public void onResponse(DeleteByQueryResponse response) {
+                try {
+                    clearSourceHashes(indexName, typeName);  // deleted documents are unknown
+                } catch (Throwable e) {
+                    listener.onFailure(e);
+                    return;
+                }
+                listener.onResponse(response);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                try {
+                    clearSourceHashes(indexName, typeName);  // some documents may be deleted
+                } finally {
+                    listener.onFailure(e);
+                }
+            }
+        });
     }
 
 
@@ -250,7 +1374,10 @@ public class ElasticSearchIndexerImpl implements ElasticSearchIndexer {
     public DeleteIndexResponse deleteIndex() {
         logger.debug("Delete index: {}", getIndexName());
         if (indexExist()) {
-            return client.admin().indices().prepareDelete(getIndexName()).get();
+            DeleteIndexResponse response = client.admin().indices().prepareDelete(getIndexName()).get();
+            clearMappingCache(getIndexName());
+            clearSourceHashes(getIndexName(), null);
+            return response;
         }
         logger.warn("Index {} not exist, cannot delete", getIndexName());
         return null;
@@ -278,4 +1405,134 @@ public class ElasticSearchIndexerImpl implements ElasticSearchIndexer {
     public boolean aliasExist(String aliasName) {
         return client.admin().indices().prepareAliasesExist(aliasName).get().isExists();
     }
+
+    /**
+     * Bulk index request with the sources of its actions hashed while converting the objects
+     */
+    private static class PreparedBulkIndex {
+
+        private final BulkRequest request;
+
+        /**
+         * Source of each action of the request, null without a source hash store
+         */
+        private final IndexedSource[] sources;
+
+        /**
+         * Number of objects skipped because their source is unchanged
+         */
+        private final int unchanged;
+
+        private PreparedBulkIndex(BulkRequest request, @Nullable IndexedSource[] sources, int unchanged) {
+            this.request = request;
+            this.sources = sources;
+            this.unchanged = unchanged;
+        }
+    }
+
+    /**
+     * Document of an index request and the hash of its source
+     */
+    private static class IndexedSource {
+
+        private final String indexName;
+
+        private final String typeName;
+
+        private final String id;
+
+        private final long hash;
+
+        private IndexedSource(String indexName, String typeName, String id, long hash) {
+            this.indexName = indexName;
+            this.typeName = typeName;
+            this.id = id;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Mapping fetched from the server, cached until expired
+     */
+    private static class CachedMapping {
+
+        private final String mapping;
+
+        private final long expireAt;
+
+        private CachedMapping(String mapping, long expireAt) {
+            this.mapping = mapping;
+            this.expireAt = expireAt;
+        }
+
+        private boolean isExpired() {
+            return System.nanoTime() - expireAt > 0;
+        }
+    }
+
+    /**
+     * {@link BulkProcessor.Listener} which keeps track of in-flight bulk requests, logs failed bulk requests
+     * and notifies the optional user listener
+     */
+    private static class TrackingBulkListener implements BulkProcessor.Listener {
+
+        private final BulkProcessor.Listener delegate;
+
+        private int pending = 0;
+
+        private TrackingBulkListener(@Nullable BulkProcessor.Listener delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            synchronized (this) {
+                pending++;
+            }
+            logger.debug("Execute bulk request [{}] with {} actions", executionId, request.numberOfActions());
+            if (delegate != null) {
+                delegate.beforeBulk(executionId, request);
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            try {
+                if (response.hasFailures()) {
+                    logger.warn("Bulk request [{}] has failures: {}", executionId, response.buildFailureMessage());
+                }
+                if (delegate != null) {
+                    delegate.afterBulk(executionId, request, response);
+                }
+            } finally {
+                done();
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            try {
+                logger.error("Bulk request [{}] with {} actions failed", failure, executionId, request.numberOfActions());
+                if (delegate != null) {
+                    delegate.afterBulk(executionId, request, failure);
+                }
+            } finally {
+                done();
+            }
+        }
+
+        private synchronized void done() {
+            pending--;
+            notifyAll();
+        }
+
+        /**
+         * Wait until all in-flight bulk requests completed
+         */
+        private synchronized void awaitPending() throws InterruptedException {
+            while (pending > 0) {
+                wait();
+            }
+        }
+    }
 }
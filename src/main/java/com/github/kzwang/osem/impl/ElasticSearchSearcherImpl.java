@@ -1,15 +1,23 @@
 package com.github.kzwang.osem.impl;
 
+import com.github.kzwang.osem.api.CloseableIterator;
 import com.github.kzwang.osem.api.ElasticSearchSearcher;
+import com.github.kzwang.osem.inject.OsemSettings;
 import com.github.kzwang.osem.processor.MappingProcessor;
 import com.github.kzwang.osem.processor.ObjectProcessor;
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ListenableActionFuture;
 import org.elasticsearch.action.count.CountRequestBuilder;
+import org.elasticsearch.action.count.CountResponse;
 import org.elasticsearch.action.get.GetRequestBuilder;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
 import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.PlainActionFuture;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.Preconditions;
@@ -33,10 +41,28 @@ public class ElasticSearchSearcherImpl implements ElasticSearchSearcher {
 
     private ObjectProcessor objectProcessor;
 
+    private OsemSettings settings;
+
     public ElasticSearchSearcherImpl(Client client, String indexName) {
+        this(client, indexName, new ObjectProcessor());
+    }
+
+    /**
+     * @param objectProcessor processor to (de)serialize objects, can be shared with other indexers and searchers
+     */
+    public ElasticSearchSearcherImpl(Client client, String indexName, ObjectProcessor objectProcessor) {
+        this(client, indexName, objectProcessor, OsemSettings.DEFAULT);
+    }
+
+    /**
+     * @param objectProcessor processor to (de)serialize objects, can be shared with other indexers and searchers
+     * @param settings        osem settings
+     */
+    public ElasticSearchSearcherImpl(Client client, String indexName, ObjectProcessor objectProcessor, OsemSettings settings) {
         this.client = client;
         this.indexName = indexName;
-        objectProcessor = new ObjectProcessor();
+        this.objectProcessor = objectProcessor;
+        this.settings = settings;
     }
 
     public String getIndexName() {
@@ -49,6 +75,27 @@ public class ElasticSearchSearcherImpl implements ElasticSearchSearcher {
 
     @Override
     public Long count(Class clazz, @Nullable QueryBuilder queryBuilder) {
+        return prepareCount(clazz, queryBuilder).get().getCount();
+    }
+
+    @Override
+    public ActionFuture<Long> countAsync(Class clazz, @Nullable QueryBuilder queryBuilder) {
+        PlainActionFuture<Long> future = PlainActionFuture.newFuture();
+        countAsync(clazz, queryBuilder, future);
+        return future;
+    }
+
+    @Override
+    public void countAsync(Class clazz, @Nullable QueryBuilder queryBuilder, ActionListener<Long> listener) {
+        prepareCount(clazz, queryBuilder).execute(new ConvertingActionListener<CountResponse, Long>(listener) {
+            @Override
+            protected Long convert(CountResponse response) {
+                return response.getCount();
+            }
+        });
+    }
+
+    private CountRequestBuilder prepareCount(Class clazz, @Nullable QueryBuilder queryBuilder) {
         CountRequestBuilder countRequestBuilder = client.prepareCount(getIndexName());
         if (queryBuilder != null) {
             countRequestBuilder.setQuery(queryBuilder);
@@ -66,7 +113,7 @@ public class ElasticSearchSearcherImpl implements ElasticSearchSearcher {
             logger.debug("Count for class: {}, query: {}", clazz.getSimpleName(), queryStr);
         }
 
-        return countRequestBuilder.get().getCount();
+        return countRequestBuilder;
     }
 
 
@@ -76,8 +123,28 @@ public class ElasticSearchSearcherImpl implements ElasticSearchSearcher {
         return requestBuilder.get();
     }
 
+    @Override
+    public ListenableActionFuture<SearchResponse> searchAsync(SearchRequestBuilder requestBuilder) {
+        Preconditions.checkArgument(requestBuilder.request().types().length > 0, "Must have at least one type");
+        return requestBuilder.execute();
+    }
+
     @Override
     public <T> List<T> search(Class<T> clazz, @Nullable QueryBuilder queryBuilder, @Nullable FilterBuilder filterBuilder) {
+        return search(clazz, prepareSearch(clazz, queryBuilder, filterBuilder));
+    }
+
+    @Override
+    public <T> ActionFuture<List<T>> searchAsync(Class<T> clazz, @Nullable QueryBuilder queryBuilder, @Nullable FilterBuilder filterBuilder) {
+        return searchAsync(clazz, prepareSearch(clazz, queryBuilder, filterBuilder));
+    }
+
+    @Override
+    public <T> void searchAsync(Class<T> clazz, @Nullable QueryBuilder queryBuilder, @Nullable FilterBuilder filterBuilder, ActionListener<List<T>> listener) {
+        searchAsync(clazz, prepareSearch(clazz, queryBuilder, filterBuilder), listener);
+    }
+
+    private SearchRequestBuilder prepareSearch(Class clazz, @Nullable QueryBuilder queryBuilder, @Nullable FilterBuilder filterBuilder) {
         SearchRequestBuilder builder = getSearchRequestBuilder(clazz);
         if (queryBuilder != null) {
             builder.setQuery(queryBuilder);
@@ -99,19 +166,41 @@ public class ElasticSearchSearcherImpl implements ElasticSearchSearcher {
             logger.debug("Search for class: {}, query: {}, filter: {}", clazz.getSimpleName(), queryStr, filterStr);
         }
 
-        return search(clazz, builder);
+        return builder;
     }
 
     @Override
     public <T> List<T> search(Class<T> clazz, SearchRequestBuilder requestBuilder) {
         Preconditions.checkArgument(requestBuilder.request().types().length > 0, "Must have at least one type");
-        SearchResponse response = requestBuilder.get();
+        return getSearchResults(clazz, requestBuilder.get());
+    }
+
+    @Override
+    public <T> ActionFuture<List<T>> searchAsync(Class<T> clazz, SearchRequestBuilder requestBuilder) {
+        PlainActionFuture<List<T>> future = PlainActionFuture.newFuture();
+        searchAsync(clazz, requestBuilder, future);
+        return future;
+    }
+
+    @Override
+    public <T> void searchAsync(final Class<T> clazz, SearchRequestBuilder requestBuilder, ActionListener<List<T>> listener) {
+        Preconditions.checkArgument(requestBuilder.request().types().length > 0, "Must have at least one type");
+        requestBuilder.setListenerThreaded(true);  // convert hits on the listener thread pool instead of the network thread
+        requestBuilder.execute(new ConvertingActionListener<SearchResponse, List<T>>(listener) {
+            @Override
+            protected List<T> convert(SearchResponse response) {
+                return getSearchResults(clazz, response);
+            }
+        });
+    }
+
+    private <T> List<T> getSearchResults(Class<T> clazz, SearchResponse response) {
         List<T> results = new ArrayList<T>();
         if (response != null && response.getHits() != null) {
             SearchHit[] hits = response.getHits().getHits();
             if (hits != null && hits.length > 0) {
                 for (SearchHit hit : hits) {
-                    T t = objectProcessor.fromJsonString(hit.getSourceAsString(), clazz);
+                    T t = objectProcessor.fromBytes(hit.getSourceRef(), clazz);
                     results.add(t);
                 }
             }
@@ -119,6 +208,19 @@ public class ElasticSearchSearcherImpl implements ElasticSearchSearcher {
         return results;
     }
 
+    @Override
+    public <T> CloseableIterator<T> scan(Class<T> clazz, @Nullable QueryBuilder queryBuilder, int batchSize) {
+        return scan(clazz, prepareSearch(clazz, queryBuilder, null), batchSize);
+    }
+
+    @Override
+    public <T> CloseableIterator<T> scan(Class<T> clazz, SearchRequestBuilder requestBuilder, int batchSize) {
+        Preconditions.checkArgument(requestBuilder.request().types().length > 0, "Must have at least one type");
+        Preconditions.checkArgument(batchSize > 0, "Batch size must be positive");
+        logger.debug("Scan for class: {}, batch size: {}", clazz.getSimpleName(), batchSize);
+        return new ScanIterator<T>(client, objectProcessor, clazz, requestBuilder, batchSize, settings.getScanKeepAlive());
+    }
+
     @Override
     public SearchRequestBuilder getSearchRequestBuilder(Class... clazz) {
         Preconditions.checkArgument(clazz.length > 0, "Must have at least one class");
@@ -143,6 +245,29 @@ public class ElasticSearchSearcherImpl implements ElasticSearchSearcher {
 
     @Override
     public <T> T getById(Class<T> clazz, String id, @Nullable String routing) {
+        return getGetResult(clazz, prepareGet(clazz, id, routing).get());
+    }
+
+    @Override
+    public <T> ActionFuture<T> getByIdAsync(Class<T> clazz, String id, @Nullable String routing) {
+        PlainActionFuture<T> future = PlainActionFuture.newFuture();
+        getByIdAsync(clazz, id, routing, future);
+        return future;
+    }
+
+    @Override
+    public <T> void getByIdAsync(final Class<T> clazz, String id, @Nullable String routing, ActionListener<T> listener) {
+        GetRequestBuilder getRequest = prepareGet(clazz, id, routing);
+        getRequest.setListenerThreaded(true);
+        getRequest.execute(new ConvertingActionListener<GetResponse, T>(listener) {
+            @Override
+            protected T convert(GetResponse response) {
+                return getGetResult(clazz, response);
+            }
+        });
+    }
+
+    private GetRequestBuilder prepareGet(Class clazz, String id, @Nullable String routing) {
         String typeName = MappingProcessor.getIndexTypeName(clazz);
         if (logger.isDebugEnabled()) {
             logger.debug("Get object by id, class: {}, type: {}, id: {}, routing: {}", clazz.getSimpleName(), typeName, id, routing);
@@ -151,25 +276,54 @@ public class ElasticSearchSearcherImpl implements ElasticSearchSearcher {
         if (routing != null) {
             getRequest.setRouting(routing);
         }
-        GetResponse response = getRequest.get();
+        return getRequest;
+    }
+
+    private <T> T getGetResult(Class<T> clazz, GetResponse response) {
         if (!response.isExists()) {
             return null;
         }
-        return objectProcessor.fromJsonString(response.getSourceAsString(), clazz);
+        return objectProcessor.fromBytes(response.getSourceAsBytesRef(), clazz);
     }
 
     @Override
     public <T> List<T> getByIds(Class<T> clazz, List<String> ids) {
+        return getMultiGetResults(clazz, prepareMultiGet(clazz, ids).get());
+    }
+
+    @Override
+    public <T> ActionFuture<List<T>> getByIdsAsync(Class<T> clazz, List<String> ids) {
+        PlainActionFuture<List<T>> future = PlainActionFuture.newFuture();
+        getByIdsAsync(clazz, ids, future);
+        return future;
+    }
+
+    @Override
+    public <T> void getByIdsAsync(final Class<T> clazz, List<String> ids, ActionListener<List<T>> listener) {
+        MultiGetRequestBuilder multiGetRequest = prepareMultiGet(clazz, ids);
+        multiGetRequest.setListenerThreaded(true);
+        multiGetRequest.execute(new ConvertingActionListener<MultiGetResponse, List<T>>(listener) {
+            @Override
+            protected List<T> convert(MultiGetResponse responses) {
+                return getMultiGetResults(clazz, responses);
+            }
+        });
+    }
+
+    private MultiGetRequestBuilder prepareMultiGet(Class clazz, List<String> ids) {
         String typeName = MappingProcessor.getIndexTypeName(clazz);
         if (logger.isDebugEnabled()) {
             logger.debug("Get objects by ids, class: {}, type: {}, ids: {}", clazz.getSimpleName(), typeName, ids);
         }
-        MultiGetResponse responses = client.prepareMultiGet().add(getIndexName(), typeName, ids).get();
+        return client.prepareMultiGet().add(getIndexName(), typeName, ids);
+    }
+
+    private <T> List<T> getMultiGetResults(Class<T> clazz, MultiGetResponse responses) {
         List<T> results = new ArrayList<T>();
         if (responses != null) {
             for (MultiGetItemResponse response : responses) {
                 if (response.getResponse() != null) {
-                    results.add(objectProcessor.fromJsonString(response.getResponse().getSourceAsString(), clazz));
+                    results.add(objectProcessor.fromBytes(response.getResponse().getSourceAsBytesRef(), clazz));
                 }
             }
         }
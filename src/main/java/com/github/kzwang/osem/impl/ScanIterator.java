@@ -0,0 +1,110 @@
+package com.github.kzwang.osem.impl;
+
+import com.github.kzwang.osem.api.CloseableIterator;
+import com.github.kzwang.osem.processor.ObjectProcessor;
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+
+import java.util.NoSuchElementException;
+
+
+/**
+ * Iterate over all search results using scan/scroll, the next scroll page is fetched while the current page is consumed
+ * and hits are only converted to original object when iterated
+ *
+ * @param <T> class of the objects
+ */
+public class ScanIterator<T> implements CloseableIterator<T> {
+
+    private static final ESLogger logger = Loggers.getLogger(ScanIterator.class);
+
+    private final Client client;
+
+    private final ObjectProcessor objectProcessor;
+
+    private final Class<T> clazz;
+
+    private final TimeValue keepAlive;
+
+    private ActionFuture<SearchResponse> nextPage;
+
+    private String scrollId;
+
+    private SearchHit[] hits;
+
+    private int position = 0;
+
+    private boolean started = false;
+
+    private boolean finished = false;
+
+    public ScanIterator(Client client, ObjectProcessor objectProcessor, Class<T> clazz, SearchRequestBuilder requestBuilder,
+                        int batchSize, TimeValue keepAlive) {
+        this.client = client;
+        this.objectProcessor = objectProcessor;
+        this.clazz = clazz;
+        this.keepAlive = keepAlive;
+        requestBuilder.setSearchType(SearchType.SCAN).setScroll(keepAlive).setSize(batchSize);
+        nextPage = requestBuilder.execute();
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!finished && (hits == null || position >= hits.length)) {
+            SearchResponse response;
+            try {
+                response = nextPage.actionGet();
+            } catch (RuntimeException e) {
+                close();  // the iteration can't continue, release the scroll of the last page
+                throw e;
+            }
+            scrollId = response.getScrollId();
+            hits = response.getHits().getHits();
+            position = 0;
+            if (hits.length == 0 && started) {  // empty page after the initial scan response, no more results
+                close();
+            } else {
+                started = true;
+                nextPage = client.prepareSearchScroll(scrollId).setScroll(keepAlive).execute();  // prefetch next page
+            }
+        }
+        return !finished;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return objectProcessor.fromBytes(hits[position++].getSourceRef(), clazz);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Remove is not supported");
+    }
+
+    /**
+     * Stop iterating and release the scroll on ElasticSearch, called automatically when all results are iterated or
+     * fetching a page failed
+     */
+    @Override
+    public void close() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        hits = null;
+        if (scrollId != null) {
+            logger.debug("Clear scroll for class: {}", clazz.getSimpleName());
+            client.prepareClearScroll().addScrollId(scrollId).execute();
+        }
+    }
+}
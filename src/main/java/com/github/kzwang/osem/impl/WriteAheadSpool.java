@@ -0,0 +1,586 @@
+package com.github.kzwang.osem.impl;
+
+import com.github.kzwang.osem.api.OsemBulkResponse;
+import com.github.kzwang.osem.exception.ElasticSearchOsemException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.Version;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.UnavailableShardsException;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamInput;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.discovery.MasterNotDiscoveredException;
+import org.elasticsearch.node.NodeClosedException;
+import org.elasticsearch.transport.ConnectTransportException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Durable spool of index and delete requests which couldn't be executed because the cluster is unavailable. Requests
+ * are appended to a memory-mapped log in their transport form, so the serialized source is kept as is, and replayed
+ * in bulk in the same order once the cluster is available again. Mappings not yet registered when a request is spooled
+ * are spooled too and put before the requests which follow them.
+ * <p/>
+ * The log survives a restart of the JVM, space of replayed requests is reclaimed when the log is drained, or when it's
+ * full and the replayed requests take at least as much space as the pending ones.
+ * With a sync interval of 0, each record is synced to disk before the append returns, so a spooled request also
+ * survives a crash of the OS. With a positive sync interval, the log is synced on that interval and the requests
+ * spooled since the last sync may be lost if the OS crashes, a crash of the JVM alone loses nothing.
+ * <p/>
+ * Records are replayed one bulk request at a time, without splitting or retrying items, so requests for the same id
+ * are applied in the order they were spooled. When some requests of a batch fail because the cluster is unavailable
+ * or rejects them, the records from the first of them on are kept and replayed again, so the requests after it may be
+ * executed twice but never before it. Thread safe
+ */
+public class WriteAheadSpool implements Closeable {
+
+    private static final ESLogger logger = Loggers.getLogger(WriteAheadSpool.class);
+
+    private static final int MAGIC = 0x4f53574c;  // "OSWL"
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+
+    private static final int RECORD_HEADER_SIZE = 5;
+
+    private static final byte RECORD_INDEX = 0;
+
+    private static final byte RECORD_DELETE = 1;
+
+    private static final byte RECORD_MAPPING = 2;
+
+    private final File file;
+
+    private final RandomAccessFile raf;
+
+    private final MappedByteBuffer buffer;
+
+    private final int capacity;
+
+    /**
+     * Version of the transport form of the requests in the log
+     */
+    private final Version version;
+
+    private int readPosition;
+
+    private int writePosition;
+
+    private int count;
+
+    private final Set<String> spooledMappings = new HashSet<String>();
+
+    private final AtomicBoolean replaying = new AtomicBoolean();
+
+    private ScheduledThreadPoolExecutor replayScheduler;
+
+    /**
+     * Syncs the log on the sync interval, null to sync on each append
+     */
+    private final ScheduledThreadPoolExecutor syncScheduler;
+
+    /**
+     * Open the spool, each record is synced to disk before the append returns
+     *
+     * @param file file of the log
+     * @param size size of the log of a new file
+     */
+    public WriteAheadSpool(File file, ByteSizeValue size) {
+        this(file, size, TimeValue.timeValueMillis(0));
+    }
+
+    /**
+     * Open the spool, the file is created if it doesn't exist. An existing log is kept with its size and version
+     *
+     * @param file         file of the log
+     * @param size         size of the log of a new file
+     * @param syncInterval interval to sync the log to disk, 0 to sync each record before the append returns
+     */
+    public WriteAheadSpool(File file, ByteSizeValue size, TimeValue syncInterval) {
+        this.file = file;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            long length = raf.length();
+            boolean existing = false;
+            if (length >= HEADER_SIZE && length <= Integer.MAX_VALUE) {
+                raf.seek(0);
+                existing = raf.readInt() == MAGIC && raf.readInt() == FORMAT_VERSION;
+            }
+            if (!existing) {
+                if (length > 0) {
+                    logger.warn("Reset spool {} created with another format", file);
+                }
+                length = size.bytes();
+                if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Invalid spool size: " + size);
+                }
+                raf.setLength(length);
+            }
+            capacity = (int) length;
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            if (existing) {
+                readPosition = buffer.getInt(8);
+                writePosition = buffer.getInt(12);
+                count = countRecords();  // the count in the header may be behind the positions after a crash
+                version = Version.fromId(buffer.getInt(20));
+            } else {
+                version = Version.CURRENT;
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, FORMAT_VERSION);
+                buffer.putInt(20, version.id);
+                reset();
+            }
+        } catch (IOException e) {
+            throw new ElasticSearchOsemException("Failed to open spool " + file, e);
+        }
+        if (count > 0) {
+            logger.info("Opened spool {} with {} pending requests", file, count);
+        }
+        if (syncInterval.millis() > 0) {
+            syncScheduler = new ScheduledThreadPoolExecutor(1, EsExecutors.daemonThreadFactory("osem_spool_sync"));
+            syncScheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    buffer.force();
+                }
+            }, syncInterval.millis(), syncInterval.millis(), TimeUnit.MILLISECONDS);
+        } else {
+            syncScheduler = null;
+        }
+    }
+
+    /**
+     * @return true if no request is waiting to be replayed
+     */
+    public synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return number of requests and mappings waiting to be replayed
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Append an index or delete request, synced to disk before returning if the sync interval is 0
+     *
+     * @throws ElasticSearchOsemException if the spool is full
+     */
+    public void append(ActionRequest request) {
+        byte type;
+        if (request instanceof IndexRequest) {
+            type = RECORD_INDEX;
+        } else if (request instanceof DeleteRequest) {
+            type = RECORD_DELETE;
+        } else {
+            throw new IllegalArgumentException("Only index and delete requests can be spooled: " + request);
+        }
+        BytesStreamOutput out = new BytesStreamOutput();
+        out.setVersion(version);
+        try {
+            request.writeTo(out);
+        } catch (IOException e) {
+            throw new ElasticSearchOsemException("Failed to serialize spooled request", e);
+        }
+        synchronized (this) {
+            write(type, out.bytes());
+        }
+    }
+
+    /**
+     * Append the mapping of a type, unless it's already waiting to be replayed
+     *
+     * @throws ElasticSearchOsemException if the spool is full
+     */
+    public void appendMapping(String indexName, String typeName, String mapping) {
+        BytesStreamOutput out = new BytesStreamOutput();
+        out.setVersion(version);
+        try {
+            out.writeString(indexName);
+            out.writeString(typeName);
+            out.writeString(mapping);
+        } catch (IOException e) {
+            throw new ElasticSearchOsemException("Failed to serialize spooled mapping", e);
+        }
+        synchronized (this) {
+            if (spooledMappings.add(indexName + '/' + typeName)) {
+                write(RECORD_MAPPING, out.bytes());
+            }
+        }
+    }
+
+    private void write(byte type, BytesReference payload) {
+        int recordSize = RECORD_HEADER_SIZE + payload.length();
+        if (writePosition + recordSize > capacity) {
+            compact();
+            if (writePosition + recordSize > capacity) {
+                throw new ElasticSearchOsemException("Spool " + file + " is full with " + count + " pending requests");
+            }
+        }
+        ByteBuffer out = buffer.duplicate();
+        out.position(writePosition);
+        out.putInt(payload.length());
+        out.put(type);
+        out.put(payload.toBytes());
+        writePosition += recordSize;  // header is updated after the record is written
+        count++;
+        writeHeader();
+        sync();
+    }
+
+    private void sync() {
+        if (syncScheduler == null) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Replay spooled requests in bulk requests of at most {@code maxActions} actions, until the spool is drained or the
+     * cluster is unavailable. Requests failed for another reason are dropped. Only one replay runs at a time
+     *
+     * @return number of replayed requests
+     */
+    public int replay(Client client, int maxActions) {
+        if (!replaying.compareAndSet(false, true)) {
+            return 0;
+        }
+        // one request in flight, not split and without item retries, to keep the order of the records
+        BulkExecutor bulkExecutor = new BulkExecutor(client, -1, new ByteSizeValue(-1), 1);
+        int replayed = 0;
+        try {
+            while (true) {
+                List<Object> batch = new ArrayList<Object>();
+                List<Integer> offsets = new ArrayList<Integer>();
+                synchronized (this) {
+                    read(batch, offsets, Math.max(1, maxActions));
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+                int done = execute(client, bulkExecutor, batch);
+                if (done > 0) {
+                    consume(done, offsets.get(done));
+                    replayed += done;
+                }
+                if (done < batch.size()) {
+                    logger.debug("Cluster unavailable, {} spooled requests are kept", size());
+                    break;
+                }
+            }
+        } finally {
+            replaying.set(false);
+        }
+        if (replayed > 0) {
+            logger.info("Replayed {} spooled requests", replayed);
+        }
+        return replayed;
+    }
+
+    /**
+     * Replay the spool periodically on a daemon thread, it's started once
+     */
+    public synchronized void startReplay(final Client client, final int maxActions, TimeValue interval) {
+        if (replayScheduler != null) {
+            return;
+        }
+        replayScheduler = new ScheduledThreadPoolExecutor(1, EsExecutors.daemonThreadFactory("osem_spool_replay"));
+        replayScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    replay(client, maxActions);
+                } catch (Throwable e) {
+                    logger.warn("Failed to replay spool {}", e, file);
+                }
+            }
+        }, interval.millis(), interval.millis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Move the read position past the replayed records
+     *
+     * @param records number of replayed records
+     * @param offset  offset from the read position of the record after them
+     */
+    private synchronized void consume(int records, int offset) {
+        count -= records;
+        readPosition += offset;
+        if (readPosition == writePosition) {
+            reset();
+        } else {
+            writeHeader();
+        }
+        sync();
+    }
+
+    /**
+     * Stop replaying and write the log to the file, pending requests are replayed when the spool is opened again
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (replayScheduler != null) {
+            replayScheduler.shutdownNow();
+            replayScheduler = null;
+        }
+        if (syncScheduler != null) {
+            syncScheduler.shutdownNow();
+        }
+        buffer.force();
+        raf.close();
+    }
+
+    /**
+     * @return true if the failure means the cluster is unavailable, so the request should be spooled
+     */
+    public static boolean isUnavailable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            Throwable unwrapped = ExceptionsHelper.unwrapCause(cause);
+            if (unwrapped instanceof NoNodeAvailableException || unwrapped instanceof ClusterBlockException
+                    || unwrapped instanceof UnavailableShardsException || unwrapped instanceof MasterNotDiscoveredException
+                    || unwrapped instanceof NodeClosedException || unwrapped instanceof ConnectTransportException) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the failure means the cluster rejected the request because it's overloaded
+     */
+    private static boolean isRejected(Throwable e) {
+        return ExceptionsHelper.unwrapCause(e) instanceof EsRejectedExecutionException;
+    }
+
+    /**
+     * @return true if the item failed because the cluster is unavailable or rejected it
+     */
+    static boolean isUnavailable(BulkItemResponse item) {
+        if (!item.isFailed()) {
+            return false;
+        }
+        String message = item.getFailureMessage();
+        return BulkRetryPolicy.isRejected(item) || (message != null && (message.contains("NoNodeAvailableException")
+                || message.contains("ClusterBlockException") || message.contains("UnavailableShardsException")
+                || message.contains("MasterNotDiscoveredException") || message.contains("NodeClosedException")
+                || message.contains("ConnectTransportException") || message.contains("NodeDisconnectedException")));
+    }
+
+    /**
+     * Execute the batch in order, mappings are put before the requests which follow them. Records which are replayed,
+     * or dropped because they failed for another reason than the cluster being unavailable, are done. Execution stops
+     * at the first record which must be replayed again
+     *
+     * @return number of leading records of the batch which are done
+     */
+    private int execute(Client client, BulkExecutor bulkExecutor, List<Object> batch) {
+        BulkRequest bulkRequest = new BulkRequest();
+        int bulkStart = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            Object record = batch.get(i);
+            if (record instanceof ActionRequest) {
+                if (bulkRequest.numberOfActions() == 0) {
+                    bulkStart = i;
+                }
+                bulkRequest.add((ActionRequest) record);
+                continue;
+            }
+            if (bulkRequest.numberOfActions() > 0) {
+                int done = executeBulk(bulkExecutor, bulkRequest);
+                if (done < bulkRequest.numberOfActions()) {
+                    return bulkStart + done;
+                }
+                bulkRequest = new BulkRequest();
+            }
+            SpooledMapping mapping = (SpooledMapping) record;
+            try {
+                client.admin().indices().preparePutMapping(mapping.indexName).setType(mapping.typeName)
+                        .setSource(mapping.mapping).get();
+            } catch (RuntimeException e) {
+                if (isUnavailable(e)) {
+                    return i;
+                }
+                logger.warn("Dropped spooled mapping of index [{}], type [{}]", e, mapping.indexName, mapping.typeName);
+            }
+        }
+        if (bulkRequest.numberOfActions() == 0) {
+            return batch.size();
+        }
+        return bulkStart + executeBulk(bulkExecutor, bulkRequest);
+    }
+
+    /**
+     * A request failed as a whole for another reason than the cluster being unavailable or rejecting it is executed
+     * again action by action, so only the actions failing on their own are dropped
+     *
+     * @return number of leading actions of the request which are done
+     */
+    private int executeBulk(BulkExecutor bulkExecutor, BulkRequest bulkRequest) {
+        OsemBulkResponse response;
+        try {
+            response = bulkExecutor.execute(bulkRequest);
+        } catch (RuntimeException e) {
+            if (isUnavailable(e) || isRejected(e)) {
+                return 0;
+            }
+            List<ActionRequest> requests = bulkRequest.requests();
+            if (requests.size() == 1) {
+                logger.warn("Dropped spooled request {}", e, requests.get(0));
+                return 1;
+            }
+            for (int i = 0; i < requests.size(); i++) {
+                if (executeBulk(bulkExecutor, new BulkRequest().add(requests.get(i))) == 0) {
+                    return i;
+                }
+            }
+            return requests.size();
+        }
+        BulkItemResponse[] items = response.getItems();
+        for (int i = 0; i < items.length; i++) {
+            BulkItemResponse item = items[i];
+            if (isUnavailable(item)) {
+                return i;
+            }
+            if (item.isFailed()) {
+                logger.warn("Dropped spooled {} request of index [{}], type [{}], id [{}]: {}", item.getOpType(),
+                        item.getIndex(), item.getType(), item.getId(), item.getFailureMessage());
+            }
+        }
+        return items.length;
+    }
+
+    /**
+     * Read pending records from the read position without consuming them
+     *
+     * @param offsets offset from the read position of each read record, followed by the offset after the last one
+     */
+    private void read(List<Object> records, List<Integer> offsets, int maxRecords) {
+        int position = readPosition;
+        ByteBuffer in = buffer.duplicate();
+        while (position < writePosition && records.size() < maxRecords) {
+            in.position(position);
+            int length = in.getInt();
+            byte type = in.get();
+            offsets.add(position - readPosition);
+            position += RECORD_HEADER_SIZE + length;
+            byte[] payload = new byte[length];
+            in.get(payload);
+            BytesStreamInput payloadIn = new BytesStreamInput(payload, 0, payload.length, false);
+            payloadIn.setVersion(version);
+            try {
+                if (type == RECORD_INDEX) {
+                    IndexRequest request = new IndexRequest();
+                    request.readFrom(payloadIn);
+                    records.add(request);
+                } else if (type == RECORD_DELETE) {
+                    DeleteRequest request = new DeleteRequest();
+                    request.readFrom(payloadIn);
+                    records.add(request);
+                } else if (type == RECORD_MAPPING) {
+                    records.add(new SpooledMapping(payloadIn.readString(), payloadIn.readString(), payloadIn.readString()));
+                } else {
+                    throw new ElasticSearchOsemException("Corrupted spool " + file + ", unknown record type " + type);
+                }
+            } catch (IOException e) {
+                throw new ElasticSearchOsemException("Corrupted spool " + file, e);
+            }
+        }
+        offsets.add(position - readPosition);
+    }
+
+    /**
+     * Copy pending records to the start of the log to reclaim the space of replayed records, once they take at least as
+     * much space as the pending records. The copy doesn't overlap the pending records and is synced before the header
+     * points to it, so a crash during the compaction leaves the header pointing to the intact pending records. A record
+     * being replayed is still pending, the replay consumes it by its offset from the read position which is kept by
+     * the copy
+     */
+    private void compact() {
+        int pending = writePosition - readPosition;
+        if (readPosition == HEADER_SIZE || HEADER_SIZE + pending > readPosition) {
+            return;
+        }
+        ByteBuffer in = buffer.duplicate();
+        ByteBuffer out = buffer.duplicate();
+        in.position(readPosition).limit(writePosition);
+        out.position(HEADER_SIZE);
+        out.put(in);
+        buffer.force();
+        readPosition = HEADER_SIZE;
+        writePosition = HEADER_SIZE + pending;
+        writeHeader();
+        buffer.force();
+    }
+
+    private int countRecords() {
+        int records = 0;
+        for (int position = readPosition; position < writePosition; position += RECORD_HEADER_SIZE + buffer.getInt(position)) {
+            records++;
+        }
+        return records;
+    }
+
+    private void reset() {
+        readPosition = HEADER_SIZE;
+        writePosition = HEADER_SIZE;
+        count = 0;
+        spooledMappings.clear();
+        writeHeader();
+    }
+
+    /**
+     * Both positions are put with a single aligned write, so the header never points to a mix of old and new positions
+     */
+    private void writeHeader() {
+        buffer.putLong(8, ((long) readPosition << 32) | (writePosition & 0xffffffffL));
+        buffer.putInt(16, count);
+    }
+
+
+    private static class SpooledMapping {
+
+        private final String indexName;
+
+        private final String typeName;
+
+        private final String mapping;
+
+        private SpooledMapping(String indexName, String typeName, String mapping) {
+            this.indexName = indexName;
+            this.typeName = typeName;
+            this.mapping = mapping;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.github.kzwang.osem.inject;
+
+
+import com.github.kzwang.osem.api.BulkStats;
+import com.github.kzwang.osem.api.ElasticSearchIndexer;
+import com.github.kzwang.osem.api.ElasticSearchSearcher;
+import com.github.kzwang.osem.cache.OsemCache;
+import com.github.kzwang.osem.cache.SourceHashStore;
+import com.github.kzwang.osem.impl.AdaptiveBulkController;
+import com.github.kzwang.osem.impl.ElasticSearchIndexerImpl;
+import com.github.kzwang.osem.impl.ElasticSearchSearcherImpl;
+import com.github.kzwang.osem.impl.WriteAheadSpool;
+import com.github.kzwang.osem.processor.ObjectProcessor;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.Singleton;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Create indexers and searchers for an index, all of them share the {@link ObjectProcessor}, {@link OsemCache},
+ * {@link OsemSettings}, bulk conversion threads, {@link SourceHashStore}, {@link WriteAheadSpool} and adaptive bulk
+ * controller of the factory so creating one is cheap. The factory must be closed to stop the threads and sync the
+ * files it opened
+ */
+@Singleton
+public class ElasticSearchOsemFactory {
+
+    private static final ESLogger logger = Loggers.getLogger(ElasticSearchOsemFactory.class);
+
+    private final Client client;
+
+    private final ObjectProcessor objectProcessor;
+
+    private final OsemCache cache;
+
+    private final OsemSettings settings;
+
+    private final ExecutorService conversionExecutor;
+
+    private final SourceHashStore sourceHashStore;
+
+    private final WriteAheadSpool spool;
+
+    private final AdaptiveBulkController bulkController;
+
+    private boolean closed;
+
+    @Inject
+    public ElasticSearchOsemFactory(Client client, ObjectProcessor objectProcessor, OsemCache cache, OsemSettings settings) {
+        this.client = client;
+        this.objectProcessor = objectProcessor;
+        this.cache = cache;
+        this.settings = settings;
+        this.conversionExecutor = ElasticSearchIndexerImpl.newConversionExecutor(settings);
+        this.sourceHashStore = ElasticSearchIndexerImpl.newSourceHashStore(settings);
+        this.bulkController = ElasticSearchIndexerImpl.newBulkController(settings);
+        this.spool = ElasticSearchIndexerImpl.newSpool(client, settings);
+    }
+
+    /**
+     * Create an indexer for the index
+     *
+     * @param indexName name of the index
+     * @return indexer
+     */
+    public ElasticSearchIndexer newIndexer(String indexName) {
+        return new ElasticSearchIndexerImpl(client, indexName, objectProcessor, cache, settings, conversionExecutor,
+                sourceHashStore, spool, bulkController);
+    }
+
+    /**
+     * Create a searcher for the index
+     *
+     * @param indexName name of the index
+     * @return searcher
+     */
+    public ElasticSearchSearcher newSearcher(String indexName) {
+        return new ElasticSearchSearcherImpl(client, indexName, objectProcessor, settings);
+    }
+
+    public ObjectProcessor getObjectProcessor() {
+        return objectProcessor;
+    }
+
+    public OsemSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return store of source hashes shared by the indexers, null if "osem.source_hash.store" is not set
+     */
+    public SourceHashStore getSourceHashStore() {
+        return sourceHashStore;
+    }
+
+    /**
+     * @return spool of requests written while the cluster is unavailable, null if "osem.spool.path" is not set
+     */
+    public WriteAheadSpool getSpool() {
+        return spool;
+    }
+
+    /**
+     * @return decisions and observations of the bulk controller shared by the indexers, null if
+     * "osem.bulk.adaptive.enabled" is not set
+     */
+    public BulkStats getBulkStats() {
+        return bulkController;
+    }
+
+    /**
+     * Stop replaying and sync the spool, close the source hash store and shut down the conversion threads. Indexers
+     * created by the factory must not be used after it's closed
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (conversionExecutor != null) {
+            conversionExecutor.shutdown();
+        }
+        if (spool != null) {
+            try {
+                spool.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close spool", e);
+            }
+        }
+        if (sourceHashStore != null) {
+            try {
+                sourceHashStore.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close source hash store", e);
+            }
+        }
+    }
+}
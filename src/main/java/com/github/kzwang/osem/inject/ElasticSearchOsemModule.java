@@ -1,12 +1,37 @@
 package com.github.kzwang.osem.inject;
 
 
+import com.github.kzwang.osem.cache.OsemCache;
+import com.github.kzwang.osem.processor.ObjectProcessor;
 import org.elasticsearch.common.inject.AbstractModule;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
 
+/**
+ * Binds the components shared by all indexers and searchers: {@link OsemSettings}, {@link OsemCache} and a singleton
+ * {@link ObjectProcessor}. Indexers and searchers are created by {@link ElasticSearchOsemFactory}, which also requires
+ * a {@link org.elasticsearch.client.Client} to be bound
+ */
 public class ElasticSearchOsemModule extends AbstractModule {
 
+    private final Settings settings;
+
+    public ElasticSearchOsemModule() {
+        this(ImmutableSettings.EMPTY);
+    }
+
+    /**
+     * @param settings settings containing "osem.*" keys, see {@link OsemSettings}
+     */
+    public ElasticSearchOsemModule(Settings settings) {
+        this.settings = settings;
+    }
+
     @Override
     protected void configure() {
+        bind(OsemSettings.class).toInstance(new OsemSettings(settings));
+        bind(OsemCache.class).toInstance(OsemCache.getInstance());
+        bind(ObjectProcessor.class).asEagerSingleton();
     }
 
 
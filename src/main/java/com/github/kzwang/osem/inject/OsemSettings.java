@@ -0,0 +1,267 @@
+package com.github.kzwang.osem.inject;
+
+
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Configuration shared by {@link com.github.kzwang.osem.processor.ObjectProcessor}, indexers and searchers, read once
+ * from ElasticSearch {@link Settings}:
+ * <ul>
+ * <li>osem.serialize.write_dates_as_timestamps: write dates without custom format as timestamps, default false</li>
+ * <li>osem.serialize.buffer_size: initial size of the serialization buffer each thread reuses, default 1kb</li>
+ * <li>osem.serialize.max_buffer_size: size above which the serialization buffer of a thread is released instead of
+ * reused, default 1mb</li>
+ * <li>osem.deserialize.fail_on_unknown_properties: fail if source has properties unknown to the class, default false</li>
+ * <li>osem.bulk.actions: number of actions to flush a bulk request, bulk operations are split into requests of at most
+ * this number of actions, default 1000</li>
+ * <li>osem.bulk.size: size of the actions to flush a bulk request, bulk operations are split into requests of at most
+ * this size, default 5mb</li>
+ * <li>osem.bulk.flush_interval: interval to flush a bulk request regardless of its size, not set by default</li>
+ * <li>osem.bulk.concurrent_requests: number of bulk requests executing at the same time, default 1</li>
+ * <li>osem.bulk.split.concurrent_requests: number of requests of a split bulk operation executing at the same time, above
+ * 1 the actions of one operation on the same document may be applied out of order, default 1</li>
+ * <li>osem.bulk.conversion.threads: number of threads converting objects of a bulk operation to requests, default 1
+ * (converted on the calling thread)</li>
+ * <li>osem.bulk.retry.max_retries: max number of times a bulk item rejected by ElasticSearch is retried, default 0 (disabled)</li>
+ * <li>osem.bulk.retry.initial_backoff: backoff before the first retry, doubled for each further retry, default 100ms</li>
+ * <li>osem.bulk.retry.max_backoff: max backoff before a retry, default 5s</li>
+ * <li>osem.bulk.retry.budget: max number of item retries of a bulk operation as ratio of its items, default 1.0</li>
+ * <li>osem.bulk.adaptive.enabled: tune the number of actions and concurrent requests of split bulk operations from the
+ * observed latency and rejections, osem.bulk.actions and osem.bulk.split.concurrent_requests are the initial values.
+ * One controller is shared by the indexers of an {@link ElasticSearchOsemFactory}, default false</li>
+ * <li>osem.bulk.adaptive.target_latency: target latency of a bulk request, default 1s</li>
+ * <li>osem.bulk.adaptive.min_actions: min number of actions in a bulk request, default 100</li>
+ * <li>osem.bulk.adaptive.max_actions: max number of actions in a bulk request, default 10000</li>
+ * <li>osem.bulk.adaptive.max_concurrent_requests: max number of requests of a split bulk operation executing at the
+ * same time, default 8</li>
+ * <li>osem.scan.keep_alive: how long a scan search context is kept alive between pages, default 1m</li>
+ * <li>osem.mapping.cache_ttl: how long a mapping fetched from the server is cached, 0 to disable, default 1m</li>
+ * <li>osem.source_hash.store: store of source hashes to skip unchanged objects in bulk index, "memory", "mmap" or "none",
+ * default none</li>
+ * <li>osem.source_hash.path: file of the "mmap" source hash store</li>
+ * <li>osem.source_hash.capacity: max number of documents in the "mmap" source hash store, default 1000000</li>
+ * <li>osem.spool.path: file of the spool of index and delete requests written while the cluster is unavailable, not
+ * set by default (disabled)</li>
+ * <li>osem.spool.size: size of the spool file, default 64mb</li>
+ * <li>osem.spool.replay_interval: interval to replay the spooled requests, default 10s</li>
+ * <li>osem.spool.sync_interval: interval to sync the spool file to disk, 0 to sync each spooled request before the
+ * call returns, default 0</li>
+ * </ul>
+ */
+public class OsemSettings {
+
+    public static final OsemSettings DEFAULT = new OsemSettings(ImmutableSettings.EMPTY);
+
+    private final Settings settings;
+
+    private final boolean writeDatesAsTimestamps;
+
+    private final int serializeBufferSize;
+
+    private final int serializeMaxBufferSize;
+
+    private final boolean failOnUnknownProperties;
+
+    private final int bulkActions;
+
+    private final ByteSizeValue bulkSize;
+
+    private final TimeValue bulkFlushInterval;
+
+    private final int bulkConcurrentRequests;
+
+    private final int bulkSplitConcurrentRequests;
+
+    private final int bulkConversionThreads;
+
+    private final int bulkRetryMaxRetries;
+
+    private final TimeValue bulkRetryInitialBackoff;
+
+    private final TimeValue bulkRetryMaxBackoff;
+
+    private final float bulkRetryBudget;
+
+    private final boolean bulkAdaptiveEnabled;
+
+    private final TimeValue bulkAdaptiveTargetLatency;
+
+    private final int bulkAdaptiveMinActions;
+
+    private final int bulkAdaptiveMaxActions;
+
+    private final int bulkAdaptiveMaxConcurrentRequests;
+
+    private final TimeValue scanKeepAlive;
+
+    private final TimeValue mappingCacheTtl;
+
+    private final String sourceHashStore;
+
+    private final String sourceHashPath;
+
+    private final int sourceHashCapacity;
+
+    private final String spoolPath;
+
+    private final ByteSizeValue spoolSize;
+
+    private final TimeValue spoolReplayInterval;
+
+    private final TimeValue spoolSyncInterval;
+
+    public OsemSettings(Settings settings) {
+        this.settings = settings;
+        writeDatesAsTimestamps = settings.getAsBoolean("osem.serialize.write_dates_as_timestamps", false);
+        serializeBufferSize = (int) settings.getAsBytesSize("osem.serialize.buffer_size", new ByteSizeValue(1, ByteSizeUnit.KB)).bytes();
+        serializeMaxBufferSize = (int) settings.getAsBytesSize("osem.serialize.max_buffer_size", new ByteSizeValue(1, ByteSizeUnit.MB)).bytes();
+        failOnUnknownProperties = settings.getAsBoolean("osem.deserialize.fail_on_unknown_properties", false);
+        bulkActions = settings.getAsInt("osem.bulk.actions", 1000);
+        bulkSize = settings.getAsBytesSize("osem.bulk.size", new ByteSizeValue(5, ByteSizeUnit.MB));
+        bulkFlushInterval = settings.getAsTime("osem.bulk.flush_interval", null);
+        bulkConcurrentRequests = settings.getAsInt("osem.bulk.concurrent_requests", 1);
+        bulkSplitConcurrentRequests = settings.getAsInt("osem.bulk.split.concurrent_requests", 1);
+        bulkConversionThreads = settings.getAsInt("osem.bulk.conversion.threads", 1);
+        bulkRetryMaxRetries = settings.getAsInt("osem.bulk.retry.max_retries", 0);
+        bulkRetryInitialBackoff = settings.getAsTime("osem.bulk.retry.initial_backoff", TimeValue.timeValueMillis(100));
+        bulkRetryMaxBackoff = settings.getAsTime("osem.bulk.retry.max_backoff", TimeValue.timeValueSeconds(5));
+        bulkRetryBudget = settings.getAsFloat("osem.bulk.retry.budget", 1.0f);
+        bulkAdaptiveEnabled = settings.getAsBoolean("osem.bulk.adaptive.enabled", false);
+        bulkAdaptiveTargetLatency = settings.getAsTime("osem.bulk.adaptive.target_latency", TimeValue.timeValueSeconds(1));
+        bulkAdaptiveMinActions = settings.getAsInt("osem.bulk.adaptive.min_actions", 100);
+        bulkAdaptiveMaxActions = settings.getAsInt("osem.bulk.adaptive.max_actions", 10000);
+        bulkAdaptiveMaxConcurrentRequests = settings.getAsInt("osem.bulk.adaptive.max_concurrent_requests", 8);
+        scanKeepAlive = settings.getAsTime("osem.scan.keep_alive", TimeValue.timeValueMinutes(1));
+        mappingCacheTtl = settings.getAsTime("osem.mapping.cache_ttl", TimeValue.timeValueMinutes(1));
+        sourceHashStore = settings.get("osem.source_hash.store", "none");
+        sourceHashPath = settings.get("osem.source_hash.path");
+        sourceHashCapacity = settings.getAsInt("osem.source_hash.capacity", 1000000);
+        spoolPath = settings.get("osem.spool.path");
+        spoolSize = settings.getAsBytesSize("osem.spool.size", new ByteSizeValue(64, ByteSizeUnit.MB));
+        spoolReplayInterval = settings.getAsTime("osem.spool.replay_interval", TimeValue.timeValueSeconds(10));
+        spoolSyncInterval = settings.getAsTime("osem.spool.sync_interval", TimeValue.timeValueMillis(0));
+    }
+
+    /**
+     * @return the raw settings
+     */
+    public Settings getSettings() {
+        return settings;
+    }
+
+    public boolean isWriteDatesAsTimestamps() {
+        return writeDatesAsTimestamps;
+    }
+
+    public int getSerializeBufferSize() {
+        return serializeBufferSize;
+    }
+
+    public int getSerializeMaxBufferSize() {
+        return serializeMaxBufferSize;
+    }
+
+    public boolean isFailOnUnknownProperties() {
+        return failOnUnknownProperties;
+    }
+
+    public int getBulkActions() {
+        return bulkActions;
+    }
+
+    public ByteSizeValue getBulkSize() {
+        return bulkSize;
+    }
+
+    public TimeValue getBulkFlushInterval() {
+        return bulkFlushInterval;
+    }
+
+    public int getBulkConcurrentRequests() {
+        return bulkConcurrentRequests;
+    }
+
+    public int getBulkSplitConcurrentRequests() {
+        return bulkSplitConcurrentRequests;
+    }
+
+    public int getBulkConversionThreads() {
+        return bulkConversionThreads;
+    }
+
+    public int getBulkRetryMaxRetries() {
+        return bulkRetryMaxRetries;
+    }
+
+    public TimeValue getBulkRetryInitialBackoff() {
+        return bulkRetryInitialBackoff;
+    }
+
+    public TimeValue getBulkRetryMaxBackoff() {
+        return bulkRetryMaxBackoff;
+    }
+
+    public float getBulkRetryBudget() {
+        return bulkRetryBudget;
+    }
+
+    public boolean isBulkAdaptiveEnabled() {
+        return bulkAdaptiveEnabled;
+    }
+
+    public TimeValue getBulkAdaptiveTargetLatency() {
+        return bulkAdaptiveTargetLatency;
+    }
+
+    public int getBulkAdaptiveMinActions() {
+        return bulkAdaptiveMinActions;
+    }
+
+    public int getBulkAdaptiveMaxActions() {
+        return bulkAdaptiveMaxActions;
+    }
+
+    public int getBulkAdaptiveMaxConcurrentRequests() {
+        return bulkAdaptiveMaxConcurrentRequests;
+    }
+
+    public TimeValue getScanKeepAlive() {
+        return scanKeepAlive;
+    }
+
+    public TimeValue getMappingCacheTtl() {
+        return mappingCacheTtl;
+    }
+
+    public String getSourceHashStore() {
+        return sourceHashStore;
+    }
+
+    public String getSourceHashPath() {
+        return sourceHashPath;
+    }
+
+    public int getSourceHashCapacity() {
+        return sourceHashCapacity;
+    }
+
+    public String getSpoolPath() {
+        return spoolPath;
+    }
+
+    public ByteSizeValue getSpoolSize() {
+        return spoolSize;
+    }
+
+    public TimeValue getSpoolReplayInterval() {
+        return spoolReplayInterval;
+    }
+
+    public TimeValue getSpoolSyncInterval() {
+        return spoolSyncInterval;
+    }
+}
@@ -1,9 +1,12 @@
 package com.github.kzwang.osem.jackson;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
 import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.ResolvableSerializer;
 import com.fasterxml.jackson.databind.ser.impl.PropertySerializerMap;
 import com.github.kzwang.osem.annotations.IndexableComponent;
 import com.github.kzwang.osem.annotations.IndexableProperties;
@@ -15,8 +18,49 @@ import com.github.kzwang.osem.annotations.IndexableProperty;
  */
 public class OsemBeanPropertyWriter extends BeanPropertyWriter {
 
+    /**
+     * Custom serializer class from OSEM annotations, also used to serialize null value
+     */
+    protected final Class<? extends JsonSerializer> _customSerializerClass;
+
+    /**
+     * Custom serializer instance for null value, resolved on first use
+     */
+    protected volatile JsonSerializer<Object> _customNullSerializer;
+
     protected OsemBeanPropertyWriter(BeanPropertyWriter base) {
         super(base);
+        _customSerializerClass = findCustomSerializerClass(_member);
+    }
+
+    private static Class<? extends JsonSerializer> findCustomSerializerClass(AnnotatedMember member) {
+        IndexableProperty indexableProperty = member.getAnnotation(IndexableProperty.class);
+        if (indexableProperty != null && indexableProperty.serializer() != JsonSerializer.class) {
+            return indexableProperty.serializer();
+        }
+        IndexableComponent indexableComponent = member.getAnnotation(IndexableComponent.class);
+        if (indexableComponent != null && indexableComponent.serializer() != JsonSerializer.class) {
+            return indexableComponent.serializer();
+        }
+        IndexableProperties indexableProperties = member.getAnnotation(IndexableProperties.class);
+        if (indexableProperties != null && indexableProperties.serializer() != JsonSerializer.class) {
+            return indexableProperties.serializer();
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private JsonSerializer<Object> getCustomNullSerializer(SerializerProvider prov) throws JsonMappingException {
+        JsonSerializer<Object> serializer = _customNullSerializer;
+        if (serializer == null) {
+            serializer = prov.serializerInstance(_member, _customSerializerClass);
+            if (serializer instanceof ResolvableSerializer) {
+                ((ResolvableSerializer) serializer).resolve(prov);
+            }
+            serializer = (JsonSerializer<Object>) prov.handleSecondaryContextualization(serializer, this);
+            _customNullSerializer = serializer;
+        }
+        return serializer;
     }
 
     @Override
@@ -27,18 +71,8 @@ public class OsemBeanPropertyWriter extends BeanPropertyWriter {
             if (_nullSerializer != null) {
                 jgen.writeFieldName(_name);
                 // check has custom serializer first
-                IndexableProperty indexableProperty = _member.getAnnotation(IndexableProperty.class);
-                IndexableComponent indexableComponent = _member.getAnnotation(IndexableComponent.class);
-                IndexableProperties indexableProperties = _member.getAnnotation(IndexableProperties.class);
-                if (indexableProperty != null && indexableProperty.serializer() != JsonSerializer.class) {
-                    JsonSerializer serializer = indexableProperty.serializer().newInstance();
-                    serializer.serialize(null, jgen, prov);
-                } else if (indexableComponent != null && indexableComponent.serializer() != JsonSerializer.class) {
-                    JsonSerializer serializer = indexableComponent.serializer().newInstance();
-                    serializer.serialize(null, jgen, prov);
-                } else if (indexableProperties != null && indexableProperties.serializer() != JsonSerializer.class) {
-                    JsonSerializer serializer = indexableProperties.serializer().newInstance();
-                    serializer.serialize(null, jgen, prov);
+                if (_customSerializerClass != null) {
+                    getCustomNullSerializer(prov).serialize(null, jgen, prov);
                 } else {
                     _nullSerializer.serialize(null, jgen, prov);
                 }
@@ -1,22 +1,30 @@
 package com.github.kzwang.osem.jackson;
 
 import com.fasterxml.jackson.databind.BeanDescription;
-import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
 import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
-import com.fasterxml.jackson.databind.ser.std.BeanSerializerBase;
+
+import java.util.ArrayList;
+import java.util.List;
 
 
 /**
  * Override to use custom serializer for null value
+ * <p/>
+ * Property writers are replaced with {@link OsemBeanPropertyWriter} once when the bean serializer is built
  */
 public class OsemBeanSerializerModifier extends BeanSerializerModifier {
     @Override
-    public JsonSerializer<?> modifySerializer(SerializationConfig config, BeanDescription beanDesc, JsonSerializer<?> serializer) {
-        if (serializer instanceof BeanSerializerBase) {
-            return new OsemBeanSerializer((BeanSerializerBase) serializer);
+    public List<BeanPropertyWriter> changeProperties(SerializationConfig config, BeanDescription beanDesc, List<BeanPropertyWriter> beanProperties) {
+        List<BeanPropertyWriter> properties = new ArrayList<BeanPropertyWriter>(beanProperties.size());
+        for (BeanPropertyWriter property : beanProperties) {
+            if (property instanceof OsemBeanPropertyWriter) {
+                properties.add(property);
+            } else {
+                properties.add(new OsemBeanPropertyWriter(property));   // override to use own property writer
+            }
         }
-        return serializer;
-
+        return properties;
     }
 }
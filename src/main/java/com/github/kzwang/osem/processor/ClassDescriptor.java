@@ -0,0 +1,181 @@
+package com.github.kzwang.osem.processor;
+
+import com.github.kzwang.osem.annotations.Indexable;
+import com.github.kzwang.osem.annotations.IndexableId;
+import com.github.kzwang.osem.annotations.IndexableVersion;
+import com.github.kzwang.osem.exception.ElasticSearchOsemException;
+import com.github.kzwang.osem.utils.PropertyAccessor;
+import com.github.kzwang.osem.utils.PropertyAccessors;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Set;
+
+import static org.reflections.ReflectionUtils.getAllFields;
+import static org.reflections.ReflectionUtils.getAllMethods;
+import static org.reflections.ReflectionUtils.withAnnotation;
+import static org.reflections.ReflectionUtils.withName;
+
+
+/**
+ * Metadata of a class resolved once: id field, version field, routing path and parent path
+ */
+public class ClassDescriptor {
+
+    private final Class clazz;
+
+    private final Indexable indexable;
+
+    private final PropertyAccessor idAccessor;
+
+    private final PropertyAccessor versionAccessor;
+
+    private final AccessorChain routingChain;
+
+    private final AccessorChain parentChain;
+
+    public ClassDescriptor(Class clazz) {
+        this.clazz = clazz;
+        this.indexable = (Indexable) clazz.getAnnotation(Indexable.class);
+
+        idAccessor = getAnnotatedAccessor(clazz, IndexableId.class);
+        versionAccessor = getAnnotatedAccessor(clazz, IndexableVersion.class);
+
+        if (indexable != null) {
+            routingChain = AccessorChain.compile(clazz, indexable.routingFieldPath());
+            parentChain = AccessorChain.compile(clazz, indexable.parentPath());
+        } else {
+            routingChain = null;
+            parentChain = null;
+        }
+    }
+
+    public Class getDescribedClass() {
+        return clazz;
+    }
+
+    /**
+     * Get the id of the object
+     *
+     * @param object object to get id
+     * @return id value
+     */
+    public Object getIdValue(Object object) {
+        if (idAccessor == null) {
+            throw new ElasticSearchOsemException("Can't find id field for class: " + clazz.getSimpleName());
+        }
+        return idAccessor.getValue(object);
+    }
+
+    /**
+     * Get the external version of the object
+     *
+     * @param object object to get version
+     * @return version, null if no version field or no value
+     */
+    public Long getVersion(Object object) {
+        if (versionAccessor == null) return null;
+        Object value = versionAccessor.getValue(object);
+        if (value == null) return null;
+        if (!(value instanceof Number)) {
+            throw new ElasticSearchOsemException("Version of class " + clazz.getSimpleName() + " is not a number: " + value);
+        }
+        return ((Number) value).longValue();
+    }
+
+    /**
+     * Get the routing id of the object
+     *
+     * @param object object to get routing id
+     * @return routing id, null if no routing path
+     */
+    public String getRoutingId(Object object) {
+        getIndexable();  // throws if class is not Indexable
+        return getValue(routingChain, object);
+    }
+
+    /**
+     * Get the parent id of the object
+     *
+     * @param object object to get parent id
+     * @return parent id, null if no parent path
+     */
+    public String getParentId(Object object) {
+        getIndexable();  // throws if class is not Indexable
+        return getValue(parentChain, object);
+    }
+
+    private Indexable getIndexable() {
+        if (indexable == null) {
+            throw new ElasticSearchOsemException("Class " + clazz.getSimpleName() + " is no Indexable");
+        }
+        return indexable;
+    }
+
+    /**
+     * @return accessor of the only field or method with the annotation, null if none or more than one
+     */
+    private static PropertyAccessor getAnnotatedAccessor(Class clazz, Class<? extends Annotation> annotation) {
+        Set<Field> fields = getAllFields(clazz, withAnnotation(annotation));
+        Set<Method> methods = getAllMethods(clazz, withAnnotation(annotation));
+        if (fields.size() == 1 && methods.isEmpty()) {
+            return PropertyAccessors.forField(fields.iterator().next());
+        } else if (methods.size() == 1 && fields.isEmpty()) {
+            return PropertyAccessors.forMethod(methods.iterator().next());
+        }
+        return null;
+    }
+
+    private static String getValue(AccessorChain chain, Object object) {
+        if (chain == null) return null;
+        Object value = chain.getValue(object);
+        return value == null ? null : value.toString();
+    }
+
+
+    /**
+     * Chain of {@link PropertyAccessor}s resolved from a dot separated path, e.g. "user.id"
+     */
+    static class AccessorChain {
+
+        private final PropertyAccessor[] accessors;
+
+        private AccessorChain(PropertyAccessor[] accessors) {
+            this.accessors = accessors;
+        }
+
+        /**
+         * Resolve the fields of the path against declared field types
+         *
+         * @return the chain, null if the path is empty
+         */
+        static AccessorChain compile(Class clazz, String path) {
+            if (path == null || path.isEmpty()) return null;
+            String[] fieldNames = path.split("\\.");
+            PropertyAccessor[] accessors = new PropertyAccessor[fieldNames.length];
+            Class currentClass = clazz;
+            for (int i = 0; i < fieldNames.length; i++) {
+                Set<Field> found = currentClass == null ? null : getAllFields(currentClass, withName(fieldNames[i]));
+                if (found != null && found.size() == 1) {
+                    Field field = found.iterator().next();
+                    accessors[i] = PropertyAccessors.forField(field);
+                    currentClass = field.getType();
+                } else {
+                    accessors[i] = PropertyAccessors.forName(fieldNames[i]);  // may only exist on a sub class, resolve at runtime
+                    currentClass = null;
+                }
+            }
+            return new AccessorChain(accessors);
+        }
+
+        Object getValue(Object object) {
+            Object value = object;
+            for (PropertyAccessor accessor : accessors) {
+                value = accessor.getValue(value);
+                if (value == null) return null;
+            }
+            return value;
+        }
+    }
+}
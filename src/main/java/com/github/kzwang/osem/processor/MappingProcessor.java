@@ -78,10 +78,11 @@ public class MappingProcessor {
      * @return index type name
      */
     public static String getIndexTypeName(Class clazz) {
-        if (osemCache.isExist(CacheType.INDEX_TYPE_NAME, clazz)) {
-            return (String) osemCache.getCache(CacheType.INDEX_TYPE_NAME, clazz);
+        String typeName = (String) osemCache.getCache(CacheType.INDEX_TYPE_NAME, clazz);
+        if (typeName != null) {
+            return typeName;
         }
-        String typeName = CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, clazz.getSimpleName());
+        typeName = CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, clazz.getSimpleName());
         Indexable indexable = (Indexable) clazz.getAnnotation(Indexable.class);
         if (indexable != null && indexable.name() != null && !indexable.name().isEmpty()) {
             typeName = indexable.name();
@@ -2,53 +2,139 @@ package com.github.kzwang.osem.processor;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.AnnotationIntrospector;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
-import com.github.kzwang.osem.annotations.Indexable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.introspect.Annotated;
+import com.fasterxml.jackson.databind.introspect.AnnotatedClass;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.introspect.NopAnnotationIntrospector;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.PropertyWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 import com.github.kzwang.osem.cache.CacheType;
 import com.github.kzwang.osem.cache.OsemCache;
 import com.github.kzwang.osem.exception.ElasticSearchOsemException;
+import com.github.kzwang.osem.inject.OsemSettings;
 import com.github.kzwang.osem.jackson.JacksonElasticSearchOsemModule;
-import com.github.kzwang.osem.utils.OsemReflectionUtils;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.compress.Compressor;
+import org.elasticsearch.common.compress.CompressorFactory;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
 
-import java.lang.reflect.Field;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 
 /**
  * Serialize/Deserialize object using Jackson
+ * <p/>
+ * Thread safe, {@link ObjectReader}/{@link ObjectWriter} with the root (de)serializer resolved are built once per class,
+ * one instance can be shared by {@link com.github.kzwang.osem.api.ElasticSearchIndexer}s and
+ * {@link com.github.kzwang.osem.api.ElasticSearchSearcher}s
  */
 public class ObjectProcessor {
 
     private static final ESLogger logger = Loggers.getLogger(ObjectProcessor.class);
 
+    private static final HashFunction SOURCE_HASH = Hashing.murmur3_128();
+
+    private static final String PARTIAL_FILTER_ID = "osem_partial";
+
     private ObjectMapper serializeMapper;
 
     private ObjectMapper deSerializeMapper;
 
+    /**
+     * Same as the serialize mapper, except every bean has the {@link #PARTIAL_FILTER_ID} filter
+     */
+    private ObjectMapper partialMapper;
+
     private OsemCache osemCache;
 
+    private final OsemSettings settings;
+
+    private final ConcurrentMap<Class, ObjectWriter> writers = ConcurrentCollections.newConcurrentMap();
+
+    private final ConcurrentMap<Class, ObjectReader> readers = ConcurrentCollections.newConcurrentMap();
+
+    private final ConcurrentMap<Class, Map<String, String>> propertyNames = ConcurrentCollections.newConcurrentMap();
+
+    /**
+     * Serialization buffer reused by the documents serialized on the same thread, the serialized bytes are copied out
+     */
+    private final ThreadLocal<BytesStreamOutput> buffers = new ThreadLocal<BytesStreamOutput>() {
+        @Override
+        protected BytesStreamOutput initialValue() {
+            return new BytesStreamOutput(settings.getSerializeBufferSize());
+        }
+    };
+
 
     public ObjectProcessor() {
-        osemCache = OsemCache.getInstance();
+        this(OsemSettings.DEFAULT, OsemCache.getInstance());
+    }
+
+    @Inject
+    public ObjectProcessor(OsemSettings settings, OsemCache osemCache) {
+        this.settings = settings;
+        this.osemCache = osemCache;
         initSerializeMapper();
         initDeSerializeMapper();
     }
 
 
     private void initSerializeMapper() {
-        serializeMapper = new ObjectMapper();
-        serializeMapper.setVisibilityChecker(serializeMapper.getSerializationConfig().getDefaultVisibilityChecker()
+        serializeMapper = newSerializeMapper();
+
+        // separate mapper, its bean serializers with the filter must not be cached by the serialize mapper
+        partialMapper = newSerializeMapper();
+        partialMapper.setAnnotationIntrospector(AnnotationIntrospector.pair(new NopAnnotationIntrospector() {
+            @Override
+            public Object findFilterId(Annotated a) {
+                return a instanceof AnnotatedClass ? PARTIAL_FILTER_ID : null;
+            }
+
+            @Override
+            public Object findFilterId(AnnotatedClass ac) {
+                return PARTIAL_FILTER_ID;
+            }
+        }, partialMapper.getSerializationConfig().getAnnotationIntrospector()));
+    }
+
+    private ObjectMapper newSerializeMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.setVisibilityChecker(mapper.getSerializationConfig().getDefaultVisibilityChecker()
                 .withCreatorVisibility(JsonAutoDetect.Visibility.NONE)
                 .withFieldVisibility(JsonAutoDetect.Visibility.ANY)
                 .withGetterVisibility(JsonAutoDetect.Visibility.ANY)
                 .withIsGetterVisibility(JsonAutoDetect.Visibility.NONE)
                 .withSetterVisibility(JsonAutoDetect.Visibility.NONE));
-        serializeMapper.registerModule(new JacksonElasticSearchOsemModule());
-        serializeMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
-        serializeMapper.setSerializationInclusion(JsonInclude.Include.NON_EMPTY);
+        mapper.registerModule(new JacksonElasticSearchOsemModule());
+        mapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, settings.isWriteDatesAsTimestamps());
+        mapper.setSerializationInclusion(JsonInclude.Include.NON_EMPTY);
+        return mapper;
     }
 
     private void initDeSerializeMapper() {
@@ -60,7 +146,41 @@ public class ObjectProcessor {
                 .withIsGetterVisibility(JsonAutoDetect.Visibility.NONE)
                 .withSetterVisibility(JsonAutoDetect.Visibility.NONE));
         deSerializeMapper.registerModule(new JacksonElasticSearchOsemModule());
-        deSerializeMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        deSerializeMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, settings.isFailOnUnknownProperties());
+    }
+
+    /**
+     * Build the reader and writer of the class up front, so the first (de)serialization doesn't pay for it
+     *
+     * @param clazz class to register
+     */
+    public void register(Class clazz) {
+        getWriter(clazz);
+        getReader(clazz);
+    }
+
+    private ObjectWriter getWriter(Class clazz) {
+        ObjectWriter writer = writers.get(clazz);
+        if (writer == null) {
+            writer = serializeMapper.writerWithType(clazz);
+            ObjectWriter existing = writers.putIfAbsent(clazz, writer);
+            if (existing != null) {
+                writer = existing;
+            }
+        }
+        return writer;
+    }
+
+    private ObjectReader getReader(Class clazz) {
+        ObjectReader reader = readers.get(clazz);
+        if (reader == null) {
+            reader = deSerializeMapper.reader(clazz);
+            ObjectReader existing = readers.putIfAbsent(clazz, reader);
+            if (existing != null) {
+                reader = existing;
+            }
+        }
+        return reader;
     }
 
     /**
@@ -71,7 +191,7 @@ public class ObjectProcessor {
      */
     public String toJsonString(Object object) {
         try {
-            return serializeMapper.writeValueAsString(object);
+            return getWriter(object.getClass()).writeValueAsString(object);
         } catch (Exception ex) {
             throw new ElasticSearchOsemException("Failed to convert object to json string", ex);
         }
@@ -79,6 +199,114 @@ public class ObjectProcessor {
     }
 
 
+    /**
+     * Serialize object to UTF-8 json bytes, written directly without an intermediate json string
+     *
+     * @param object object to serialize
+     * @return json bytes of the object
+     */
+    public BytesReference toJsonBytes(Object object) {
+        try {
+            return write(getWriter(object.getClass()), object);
+        } catch (Exception ex) {
+            throw new ElasticSearchOsemException("Failed to convert object to json bytes", ex);
+        }
+    }
+
+
+    /**
+     * Serialize only some properties of the object to UTF-8 json bytes, e.g. the partial document of an update request.
+     * The other properties are not serialized. A property without value is written as null, so it's cleared by the update
+     *
+     * @param object        object to serialize
+     * @param propertyNames names of the properties to serialize, either java names or names in the json source
+     * @return json bytes of the properties
+     */
+    public BytesReference toPartialJsonBytes(Object object, Collection<String> propertyNames) {
+        Map<String, String> names = getPropertyNames(object.getClass());
+        Set<String> jsonNames = new HashSet<String>();
+        for (String propertyName : propertyNames) {
+            String name = names.get(propertyName);
+            if (name == null) {
+                throw new ElasticSearchOsemException("Unknown property [" + propertyName + "] of class " + object.getClass().getName());
+            }
+            jsonNames.add(name);
+        }
+        try {
+            PartialPropertyFilter filter = new PartialPropertyFilter(object, jsonNames);
+            BytesReference bytes = write(partialMapper.writer(new SimpleFilterProvider().addFilter(PARTIAL_FILTER_ID, filter)), object);
+            if (filter.written.size() == jsonNames.size()) {
+                return bytes;
+            }
+            // not serialized as a bean, pick the properties from the whole object
+            JsonNode tree = serializeMapper.valueToTree(object);
+            ObjectNode partial = serializeMapper.createObjectNode();
+            for (String name : jsonNames) {
+                JsonNode value = tree.get(name);
+                partial.set(name, value == null ? NullNode.getInstance() : value);
+            }
+            return write(serializeMapper.writer(), partial);
+        } catch (ElasticSearchOsemException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new ElasticSearchOsemException("Failed to convert object properties to json bytes", ex);
+        }
+    }
+
+    /**
+     * Write the value into the buffer of the current thread
+     *
+     * @return copy of the written bytes
+     */
+    private BytesReference write(ObjectWriter writer, Object value) throws IOException {
+        BytesStreamOutput out = buffers.get();
+        out.reset();
+        try {
+            writer.writeValue(out, value);
+            return out.bytes().copyBytesArray();
+        } finally {
+            if (out.bufferSize() > settings.getSerializeMaxBufferSize()) {
+                buffers.remove();  // don't hold on to the buffer of a huge document
+            }
+        }
+    }
+
+    /**
+     * @return name in the json source of each serialized property, keyed by both java name and json name
+     */
+    private Map<String, String> getPropertyNames(Class clazz) {
+        Map<String, String> names = propertyNames.get(clazz);
+        if (names == null) {
+            names = new HashMap<String, String>();
+            for (BeanPropertyDefinition property : serializeMapper.getSerializationConfig()
+                    .introspect(serializeMapper.constructType(clazz)).findProperties()) {
+                names.put(property.getInternalName(), property.getName());
+                names.put(property.getName(), property.getName());
+            }
+            Map<String, String> existing = propertyNames.putIfAbsent(clazz, names);
+            if (existing != null) {
+                names = existing;
+            }
+        }
+        return names;
+    }
+
+
+    /**
+     * Hash the serialized source, the same object serialized by the same processor always has the same hash, so it can
+     * be used to detect objects unchanged since they were indexed
+     *
+     * @param source json bytes, e.g. from {@link #toJsonBytes(Object)}
+     * @return 64-bit murmur3 hash of the source, never 0
+     */
+    public long hashSource(BytesReference source) {
+        long hash = source.hasArray()
+                ? SOURCE_HASH.hashBytes(source.array(), source.arrayOffset(), source.length()).asLong()
+                : SOURCE_HASH.hashBytes(source.toBytes()).asLong();
+        return hash == 0 ? 1 : hash;
+    }
+
+
     /**
      * Deserialize object to json string
      *
@@ -88,13 +316,57 @@ public class ObjectProcessor {
      */
     public <T> T fromJsonString(String string, Class<T> clazz) {
         try {
-            return deSerializeMapper.readValue(string, clazz);
+            return getReader(clazz).readValue(string);
         } catch (Exception ex) {
             throw new ElasticSearchOsemException("Failed to convert object from json string", ex);
         }
     }
 
 
+    /**
+     * Deserialize object from json source bytes, compressed sources are decompressed while parsing
+     *
+     * @param source json bytes to deserialize, e.g. {@link org.elasticsearch.search.SearchHit#getSourceRef()}
+     * @param clazz  Class to deserialize to
+     * @return object, null if source is null
+     */
+    public <T> T fromBytes(BytesReference source, Class<T> clazz) {
+        if (source == null) return null;
+        try {
+            ObjectReader reader = getReader(clazz);
+            Compressor compressor = CompressorFactory.compressor(source);
+            if (compressor != null) {
+                StreamInput in = compressor.streamInput(source.streamInput());
+                try {
+                    return reader.readValue(in);
+                } finally {
+                    in.close();
+                }
+            }
+            if (source.hasArray()) {
+                return reader.readValue(source.array(), source.arrayOffset(), source.length());
+            }
+            return reader.readValue(source.streamInput());
+        } catch (Exception ex) {
+            throw new ElasticSearchOsemException("Failed to convert object from json bytes", ex);
+        }
+    }
+
+
+    /**
+     * Get the {@link ClassDescriptor} of the class, the descriptor is created once and cached
+     *
+     * @param clazz class to describe
+     * @return descriptor of the class
+     */
+    public ClassDescriptor getClassDescriptor(Class clazz) {
+        ClassDescriptor descriptor = (ClassDescriptor) osemCache.getCache(CacheType.CLASS_DESCRIPTOR, clazz);
+        if (descriptor == null) {
+            descriptor = (ClassDescriptor) osemCache.putCacheIfAbsent(CacheType.CLASS_DESCRIPTOR, clazz, new ClassDescriptor(clazz));
+        }
+        return descriptor;
+    }
+
     /**
      * Get the id of the object
      *
@@ -102,15 +374,17 @@ public class ObjectProcessor {
      * @return id value
      */
     public Object getIdValue(Object object) {
-        Field idField = (Field) osemCache.getCache(CacheType.ID_FIELD, object.getClass());  // try cache first
-        if (idField == null) {
-            idField = OsemReflectionUtils.getIdField(object.getClass());
-            if (idField == null) {
-                throw new ElasticSearchOsemException("Can't find id field for class: " + object.getClass().getSimpleName());
-            }
-            osemCache.putCache(CacheType.ID_FIELD, object.getClass(), idField);
-        }
-        return OsemReflectionUtils.getFieldValue(object, idField);
+        return getClassDescriptor(object.getClass()).getIdValue(object);
+    }
+
+    /**
+     * Get the external version of the object
+     *
+     * @param object object to get version
+     * @return version, null if the class has no version field or no value
+     */
+    public Long getVersion(Object object) {
+        return getClassDescriptor(object.getClass()).getVersion(object);
     }
 
     /**
@@ -120,22 +394,7 @@ public class ObjectProcessor {
      * @return routing id
      */
     public String getRoutingId(Object object) {
-        Class clazz = object.getClass();
-        if (osemCache.isExist(CacheType.ROUTING_PATH, clazz)) {
-            String path = (String) osemCache.getCache(CacheType.ROUTING_PATH, clazz);
-            if (path == null || path.isEmpty()) return null;
-            return getValueByPath(object, path);
-        }
-        Indexable indexable = (Indexable) clazz.getAnnotation(Indexable.class);
-        if (indexable == null) {
-            throw new ElasticSearchOsemException("Class " + object.getClass().getSimpleName() + " is no Indexable");
-        }
-        String path = indexable.routingFieldPath();
-        osemCache.putCache(CacheType.ROUTING_PATH, clazz, path);
-        if (!path.isEmpty()) {
-            return getValueByPath(object, path);
-        }
-        return null;
+        return getClassDescriptor(object.getClass()).getRoutingId(object);
     }
 
     /**
@@ -145,32 +404,57 @@ public class ObjectProcessor {
      * @return parent id
      */
     public String getParentId(Object object) {
-        Class clazz = object.getClass();
-        if (osemCache.isExist(CacheType.PARENT_PATH, clazz)) {
-            String path = (String) osemCache.getCache(CacheType.PARENT_PATH, clazz);
-            if (path == null || path.isEmpty()) return null;
-            return getValueByPath(object, path);
+        return getClassDescriptor(object.getClass()).getParentId(object);
+    }
+
+
+    /**
+     * Write only the named properties of the root object, a property without value is written as null. Properties of
+     * nested objects are all written
+     */
+    private static class PartialPropertyFilter extends SimpleBeanPropertyFilter {
+
+        private final Object root;
+
+        private final Set<String> names;
+
+        private final Set<String> written = new HashSet<String>();
+
+        private PartialPropertyFilter(Object root, Set<String> names) {
+            this.root = root;
+            this.names = names;
         }
-        Indexable indexable = (Indexable) clazz.getAnnotation(Indexable.class);
-        if (indexable == null) {
-            throw new ElasticSearchOsemException("Class " + object.getClass().getSimpleName() + " is no Indexable");
+
+        @Override
+        public void serializeAsField(Object bean, JsonGenerator jgen, SerializerProvider provider, PropertyWriter writer) throws Exception {
+            if (bean != root) {
+                writer.serializeAsField(bean, jgen, provider);
+                return;
+            }
+            if (!names.contains(writer.getName())) {
+                return;
+            }
+            int entries = jgen.getOutputContext().getEntryCount();
+            writer.serializeAsField(bean, jgen, provider);
+            if (jgen.getOutputContext().getEntryCount() == entries) {  // null or empty value skipped by the writer
+                jgen.writeNullField(writer.getName());
+            }
+            written.add(writer.getName());
         }
-        String path = indexable.parentPath();
-        osemCache.putCache(CacheType.PARENT_PATH, clazz, path);
-        if (!path.isEmpty()) {
-            return getValueByPath(object, path);
+
+        @Override
+        public void serializeAsField(Object bean, JsonGenerator jgen, SerializerProvider provider, BeanPropertyWriter writer) throws Exception {
+            serializeAsField(bean, jgen, provider, (PropertyWriter) writer);
         }
-        return null;
-    }
 
-    private String getValueByPath(Object object, String path) {
-        String[] fieldNames = path.split("\\.");
-        Object parentObject = object;
-        for (String fieldName : fieldNames) {
-            parentObject = OsemReflectionUtils.getFieldValue(parentObject, fieldName);
-            if (parentObject == null) return null;
+        @Override
+        protected boolean include(BeanPropertyWriter writer) {
+            return true;
         }
-        return parentObject.toString();
-    }
 
+        @Override
+        protected boolean include(PropertyWriter writer) {
+            return true;
+        }
+    }
 }
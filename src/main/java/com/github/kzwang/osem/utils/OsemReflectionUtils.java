@@ -37,7 +37,9 @@ public class OsemReflectionUtils {
 
     public static Object getFieldValue(Object object, Field field) {
         try {
-            field.setAccessible(true);
+            if (!field.isAccessible()) {
+                field.setAccessible(true);
+            }
             return field.get(object);
         } catch (IllegalAccessException e) {
             logger.error("Failed to get value from field", e);
@@ -0,0 +1,17 @@
+package com.github.kzwang.osem.utils;
+
+
+/**
+ * Read the value of a property from an object, created once per property by {@link PropertyAccessors}
+ */
+public interface PropertyAccessor {
+
+    /**
+     * Get the value of the property
+     *
+     * @param object object to read from
+     * @return value of the property
+     */
+    public Object getValue(Object object);
+
+}
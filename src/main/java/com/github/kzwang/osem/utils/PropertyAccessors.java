@@ -0,0 +1,116 @@
+package com.github.kzwang.osem.utils;
+
+import com.github.kzwang.osem.exception.ElasticSearchOsemException;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Create {@link PropertyAccessor}s, access checks are suppressed once when the accessor is created so reading a value
+ * is a plain {@link Field#get(Object)} or {@link Method#invoke(Object, Object...)} call
+ */
+public class PropertyAccessors {
+
+    private static final ESLogger logger = Loggers.getLogger(PropertyAccessors.class);
+
+    /**
+     * Accessor for a field, falls back to look up the field by name if the object is not an instance of the declaring
+     * class or access checks can't be suppressed
+     */
+    public static PropertyAccessor forField(Field field) {
+        try {
+            field.setAccessible(true);
+        } catch (SecurityException e) {
+            logger.debug("Unable to suppress access checks for field {}, fall back to reflection lookup", field.getName());
+            return forName(field.getName());
+        }
+        return new FieldAccessor(field);
+    }
+
+    /**
+     * Accessor for a no-argument getter method
+     */
+    public static PropertyAccessor forMethod(Method method) {
+        try {
+            method.setAccessible(true);
+        } catch (SecurityException e) {
+            logger.debug("Unable to suppress access checks for method {}", method.getName());
+        }
+        return new MethodAccessor(method);
+    }
+
+    /**
+     * Accessor which looks up the field by name using the runtime class of the object
+     */
+    public static PropertyAccessor forName(String fieldName) {
+        return new ReflectionAccessor(fieldName);
+    }
+
+
+    private static class FieldAccessor implements PropertyAccessor {
+
+        private final Field field;
+
+        private final Class declaringClass;
+
+        private final PropertyAccessor fallback;
+
+        private FieldAccessor(Field field) {
+            this.field = field;
+            this.declaringClass = field.getDeclaringClass();
+            this.fallback = forName(field.getName());
+        }
+
+        @Override
+        public Object getValue(Object object) {
+            if (!declaringClass.isInstance(object)) {
+                return fallback.getValue(object);
+            }
+            try {
+                return field.get(object);
+            } catch (IllegalAccessException e) {
+                logger.error("Failed to get value from field", e);
+                throw new ElasticSearchOsemException(e);
+            }
+        }
+    }
+
+    private static class MethodAccessor implements PropertyAccessor {
+
+        private final Method method;
+
+        private MethodAccessor(Method method) {
+            this.method = method;
+        }
+
+        @Override
+        public Object getValue(Object object) {
+            try {
+                return method.invoke(object);
+            } catch (IllegalAccessException e) {
+                logger.error("Failed to get value from method", e);
+                throw new ElasticSearchOsemException(e);
+            } catch (InvocationTargetException e) {
+                logger.error("Failed to get value from method", e);
+                throw new ElasticSearchOsemException(e.getCause());
+            }
+        }
+    }
+
+    private static class ReflectionAccessor implements PropertyAccessor {
+
+        private final String fieldName;
+
+        private ReflectionAccessor(String fieldName) {
+            this.fieldName = fieldName;
+        }
+
+        @Override
+        public Object getValue(Object object) {
+            return OsemReflectionUtils.getFieldValue(object, fieldName);
+        }
+    }
+}
@@ -2,25 +2,67 @@ package com.github.kzwang.osem.api;
 
 
 import com.carrotsearch.randomizedtesting.annotations.*;
+import com.github.kzwang.osem.annotations.Indexable;
+import com.github.kzwang.osem.annotations.IndexableId;
+import com.github.kzwang.osem.annotations.IndexableProperty;
 import com.github.kzwang.osem.model.TweetComment;
+import com.github.kzwang.osem.model.TweetStats;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.AbstractModule;
+import org.elasticsearch.common.inject.Injector;
+import org.elasticsearch.common.inject.ModulesBuilder;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.engine.VersionConflictEngineException;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.node.Node;
+import org.elasticsearch.node.internal.InternalNode;
+import org.elasticsearch.threadpool.ThreadPool;
+import com.github.kzwang.osem.exception.ElasticSearchOsemException;
+import com.github.kzwang.osem.impl.AdaptiveBulkController;
+import com.github.kzwang.osem.impl.BulkExecutor;
 import com.github.kzwang.osem.impl.ElasticSearchIndexerImpl;
+import com.github.kzwang.osem.impl.WriteAheadSpool;
+import com.github.kzwang.osem.inject.ElasticSearchOsemFactory;
+import com.github.kzwang.osem.inject.ElasticSearchOsemModule;
+import com.github.kzwang.osem.inject.OsemSettings;
+import com.github.kzwang.osem.cache.InMemorySourceHashStore;
+import com.github.kzwang.osem.cache.OsemCache;
 import com.github.kzwang.osem.impl.ElasticSearchSearcherImpl;
 import com.github.kzwang.osem.model.Tweet;
+import com.github.kzwang.osem.processor.ObjectProcessor;
 import com.github.kzwang.osem.test.AbstractOsemTest;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.elasticsearch.common.io.Streams.copyToStringFromClasspath;
 import static org.hamcrest.Matchers.*;
@@ -46,8 +88,9 @@ public class ElasticSearchOsemIntegrationTest extends AbstractOsemTest {
     public void setUp() {
         node = nodeBuilder().local(true).node();
         Client client = node.client();
-        indexer = new ElasticSearchIndexerImpl(client, "test");
-        searcher = new ElasticSearchSearcherImpl(client, "test");
+        ObjectProcessor objectProcessor = new ObjectProcessor();  // shared by indexer and searcher
+        indexer = new ElasticSearchIndexerImpl(client, "test", objectProcessor);
+        searcher = new ElasticSearchSearcherImpl(client, "test", objectProcessor);
         indexer.deleteIndex();  // delete old index if exist
         indexer.createIndex();
     }
@@ -134,6 +177,824 @@ public class ElasticSearchOsemIntegrationTest extends AbstractOsemTest {
         assertThat(searcher.count(Tweet.class, null), equalTo(0l));
     }
 
+    @Test
+    public void test_osem_module() throws IOException {
+        final Client client = node.client();
+        File spoolFile = new File(newTempDir(), "spool");
+        Settings settings = ImmutableSettings.settingsBuilder().put("osem.bulk.actions", randomIntBetween(1, 10))
+                .put("osem.bulk.conversion.threads", randomIntBetween(2, 4))
+                .put("osem.source_hash.store", "mmap")
+                .put("osem.source_hash.path", new File(newTempDir(), "hashes").getPath())
+                .put("osem.spool.path", spoolFile.getPath()).build();
+        Injector injector = new ModulesBuilder().add(new ElasticSearchOsemModule(settings), new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(Client.class).toInstance(client);
+            }
+        }).createInjector();
+
+        ElasticSearchOsemFactory factory = injector.getInstance(ElasticSearchOsemFactory.class);
+        assertThat(injector.getInstance(ElasticSearchOsemFactory.class), sameInstance(factory));
+        assertThat(injector.getInstance(ObjectProcessor.class), sameInstance(factory.getObjectProcessor()));
+        assertThat(factory.getSettings().getBulkActions(), equalTo(settings.getAsInt("osem.bulk.actions", null)));
+
+        ElasticSearchIndexer testIndexer = factory.newIndexer("test");
+        ElasticSearchSearcher testSearcher = factory.newSearcher("test");
+        Integer count = randomIntBetween(10, 50);
+        testIndexer.startBulkProcessor(null);
+        for (int i = 0; i < count; i ++) {
+            testIndexer.queueIndex(getRandomTweet());
+        }
+        testIndexer.closeBulkProcessor();
+        testIndexer.refreshIndex();
+        assertThat(testSearcher.count(Tweet.class, null), equalTo((long) count));
+
+        // the files are released on close, so they can be opened again
+        factory.close();
+        factory.close();
+        WriteAheadSpool spool = new WriteAheadSpool(spoolFile, new ByteSizeValue(1, ByteSizeUnit.MB));
+        assertThat(spool.isEmpty(), equalTo(true));
+        spool.close();
+    }
+
+    @Test
+    public void test_for_index() throws InterruptedException {
+        final List<ElasticSearchIndexer> views = new ArrayList<ElasticSearchIndexer>();
+        for (int i = 0; i < 3; i++) {
+            ElasticSearchIndexer view = indexer.forIndex("test_view_" + i);
+            assertThat(view.getIndexName(), equalTo("test_view_" + i));
+            assertThat(indexer.forIndex("test_view_" + i), sameInstance(view));
+            assertThat(view.forIndex("test_view_" + i), sameInstance(view));
+            view.createIndex();
+            views.add(view);
+        }
+        try {
+            views.get(0).setIndexName("test");
+            fail("Index name of indexer view should not be changeable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        // write to all views concurrently
+        final int count = randomIntBetween(5, 20);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (final ElasticSearchIndexer view : views) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < count; i++) {
+                        view.index(getRandomTweet());
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (ElasticSearchIndexer view : views) {
+            view.refreshIndex();
+            assertThat(new ElasticSearchSearcherImpl(node.client(), view.getIndexName()).count(Tweet.class, null), equalTo((long) count));
+            view.deleteIndex();
+        }
+        assertThat(indexer.getIndexName(), equalTo("test"));
+    }
+
+    @Test
+    public void test_mapping_created_on_index() throws InterruptedException {
+        for (int round = 0; round < 2; round++) {
+            assertThat(indexer.getMapping(Tweet.class), nullValue());
+
+            // concurrent writers wait for the same mapping creation
+            final int count = randomIntBetween(5, 20);
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < randomIntBetween(2, 5); i++) {
+                Thread thread = new Thread() {
+                    @Override
+                    public void run() {
+                        for (int j = 0; j < count; j++) {
+                            indexer.index(getRandomTweet());
+                        }
+                    }
+                };
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertThat(indexer.getMapping(Tweet.class), notNullValue());
+
+            // mapping should be created again after index is recreated
+            indexer.deleteIndex();
+            indexer.createIndex();
+        }
+    }
+
+    @Test
+    public void test_bulk_split() {
+        int maxActions = randomIntBetween(1, 10);
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("osem.bulk.actions", maxActions)
+                .put("osem.bulk.split.concurrent_requests", randomIntBetween(1, 4)).build();
+        ElasticSearchIndexer splitIndexer = new ElasticSearchIndexerImpl(node.client(), "test", new ObjectProcessor(),
+                OsemCache.getInstance(), new OsemSettings(settings), null, null, null, null);
+
+        int count = randomIntBetween(10, 50);
+        Object[] tweets = new Object[count];
+        for (int i = 0; i < count; i++) {
+            tweets[i] = getRandomTweet();
+        }
+        OsemBulkResponse response = splitIndexer.bulkIndex(tweets);
+        assertThat(response.hasFailures(), equalTo(false));
+        assertThat(response.getNumberOfRequests(), equalTo((count + maxActions - 1) / maxActions));
+        assertThat(response.getItems().length, equalTo(count));
+        for (int i = 0; i < count; i++) {
+            assertThat(response.getItems()[i].getItemId(), equalTo(i));
+            assertThat(response.getItems()[i].getId(), equalTo(((Tweet) tweets[i]).getId().toString()));
+        }
+        splitIndexer.refreshIndex();
+        assertThat(searcher.count(Tweet.class, null), equalTo((long) count));
+
+        response = splitIndexer.bulkDelete(tweets);
+        assertThat(response.hasFailures(), equalTo(false));
+        splitIndexer.refreshIndex();
+        assertThat(searcher.count(Tweet.class, null), equalTo(0l));
+    }
+
+    @Test
+    public void test_bulk_request_failure() {
+        // a request failed as a whole is thrown instead of reported as failed items
+        BulkRequest request = new BulkRequest();
+        int count = randomIntBetween(2, 20);
+        for (int i = 0; i < count; i++) {
+            request.add(new DeleteRequest("test", "tweet", null));  // no id, fails validation
+        }
+        // large enough batch size for a single request
+        AdaptiveBulkController controller = new AdaptiveBulkController(TimeValue.timeValueSeconds(1), 1, 20, 20, 4, 4);
+        BulkExecutor bulkExecutor = new BulkExecutor(node.client(), -1, new ByteSizeValue(-1), 1, null, controller);
+        try {
+            bulkExecutor.execute(request);
+            fail("bulk request without id should fail");
+        } catch (ActionRequestValidationException e) {
+            // expected
+        }
+        // and backs off like rejected items
+        assertThat(controller.getNumberOfFailedRequests(), equalTo(1l));
+        assertThat(controller.getBatchSize(), equalTo(10));
+        assertThat(controller.getConcurrentRequests(), equalTo(2));
+    }
+
+    @Test
+    public void test_bulk_adaptive() {
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("osem.bulk.adaptive.enabled", true)
+                .put("osem.bulk.adaptive.min_actions", 2)
+                .put("osem.bulk.adaptive.max_actions", 10)
+                .put("osem.bulk.actions", 2).build();
+        ElasticSearchOsemFactory factory = new ElasticSearchOsemFactory(node.client(), new ObjectProcessor(),
+                OsemCache.getInstance(), new OsemSettings(settings));
+        ElasticSearchIndexer adaptiveIndexer = factory.newIndexer("test");
+        BulkStats controller = factory.getBulkStats();
+        // one controller for all indexers of the factory and their views
+        assertThat(adaptiveIndexer.getBulkStats(), sameInstance(controller));
+        assertThat(factory.newIndexer("test").getBulkStats(), sameInstance(controller));
+        assertThat(adaptiveIndexer.forIndex("test").getBulkStats(), sameInstance(controller));
+        assertThat(controller.getBatchSize(), equalTo(2));
+
+        int count = randomIntBetween(50, 100);
+        Object[] tweets = new Object[count];
+        for (int i = 0; i < count; i++) {
+            tweets[i] = getRandomTweet();
+        }
+        OsemBulkResponse response = adaptiveIndexer.bulkIndex(tweets);
+        assertThat(response.hasFailures(), equalTo(false));
+        assertThat(response.getItems().length, equalTo(count));
+        for (int i = 0; i < count; i++) {
+            assertThat(response.getItems()[i].getId(), equalTo(((Tweet) tweets[i]).getId().toString()));
+        }
+        assertThat(controller.getNumberOfRequests(), equalTo((long) response.getNumberOfRequests()));
+        assertThat(controller.getBatchSize(), greaterThan(2));  // local node is well below the target latency
+        adaptiveIndexer.refreshIndex();
+        assertThat(searcher.count(Tweet.class, null), equalTo((long) count));
+
+        assertThat(new ElasticSearchIndexerImpl(node.client(), "test").getBulkStats(), nullValue());
+        factory.close();
+    }
+
+    @Test
+    public void test_bulk_parallel_conversion() {
+        Settings settings = ImmutableSettings.settingsBuilder().put("osem.bulk.conversion.threads", randomIntBetween(2, 8)).build();
+        OsemSettings osemSettings = new OsemSettings(settings);
+        ExecutorService conversionExecutor = ElasticSearchIndexerImpl.newConversionExecutor(osemSettings);
+        ElasticSearchIndexer parallelIndexer = new ElasticSearchIndexerImpl(node.client(), "test", new ObjectProcessor(),
+                OsemCache.getInstance(), osemSettings, conversionExecutor, null, null, null);
+
+        int count = randomIntBetween(100, 300);
+        Object[] tweets = new Object[count];
+        for (int i = 0; i < count; i++) {
+            tweets[i] = getRandomTweet();
+        }
+        OsemBulkResponse response = parallelIndexer.bulkIndex(tweets);
+        assertThat(response.hasFailures(), equalTo(false));
+        for (int i = 0; i < count; i++) {  // order of objects is kept
+            assertThat(response.getItems()[i].getId(), equalTo(((Tweet) tweets[i]).getId().toString()));
+        }
+        parallelIndexer.refreshIndex();
+        assertThat(searcher.count(Tweet.class, null), equalTo((long) count));
+        conversionExecutor.shutdown();
+    }
+
+    @Test
+    public void test_bulk_index_iterator() {
+        final int count = randomIntBetween(50, 200);
+        final AtomicInteger pulled = new AtomicInteger();
+        final AtomicInteger indexed = new AtomicInteger();
+        final int windowSize = randomIntBetween(1, 20);
+        final int concurrentWindows = randomIntBetween(1, 3);
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("osem.bulk.actions", windowSize)
+                .put("osem.bulk.concurrent_requests", concurrentWindows).build();
+        ElasticSearchIndexer streamIndexer = new ElasticSearchIndexerImpl(node.client(), "test", new ObjectProcessor(),
+                OsemCache.getInstance(), new OsemSettings(settings), null, null, null, null);
+
+        Iterator<Tweet> tweets = new Iterator<Tweet>() {
+            @Override
+            public boolean hasNext() {
+                return pulled.get() < count;
+            }
+
+            @Override
+            public Tweet next() {
+                // source is not pulled ahead of the windows in flight
+                assertThat(pulled.get() - indexed.get(), lessThanOrEqualTo(windowSize * (concurrentWindows + 1)));
+                pulled.incrementAndGet();
+                return getRandomTweet();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        long failures = streamIndexer.bulkIndex(tweets, new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse response) {
+                indexed.addAndGet(response.getItems().length);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                logger.error("Failed to index window", e);
+            }
+        });
+        assertThat(failures, equalTo(0l));
+        assertThat(indexed.get(), equalTo(count));
+        streamIndexer.refreshIndex();
+        assertThat(searcher.count(Tweet.class, null), equalTo((long) count));
+    }
+
+    @Test
+    @Timeout(millis = 60000)
+    public void test_bulk_index_iterator_conversion_failure() {
+        int windowSize = randomIntBetween(1, 5);
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("osem.bulk.actions", windowSize)
+                .put("osem.bulk.concurrent_requests", 1).build();
+        ElasticSearchIndexer streamIndexer = new ElasticSearchIndexerImpl(node.client(), "test", new ObjectProcessor(),
+                OsemCache.getInstance(), new OsemSettings(settings), null, null, null, null);
+        List<Object> objects = new ArrayList<Object>();
+        for (int i = 0; i < randomIntBetween(1, 3) * windowSize; i++) {
+            objects.add(getRandomTweet());
+        }
+        objects.add(new BrokenTweet());
+
+        // thrown once the windows in flight complete, instead of waiting for the failed window forever
+        try {
+            streamIndexer.bulkIndex(objects);
+            fail("object failed to serialize should be thrown");
+        } catch (RuntimeException e) {
+            assertThat(ExceptionsHelper.detailedMessage(e), containsString("broken"));
+        }
+    }
+
+    @Indexable
+    public static class BrokenTweet {
+
+        @IndexableId
+        @IndexableProperty
+        private Long id = 1l;
+
+        @IndexableProperty
+        private Broken broken = new Broken();
+
+        public Long getId() {
+            return id;
+        }
+
+        public static class Broken {
+
+            public String getValue() {
+                throw new IllegalStateException("broken");
+            }
+        }
+    }
+
+    @Test
+    public void test_bulk_retry() {
+        // node with a tiny bulk thread pool so concurrent bulk requests get rejected
+        Node retryNode = nodeBuilder().local(true).clusterName("osem_retry_" + randomAsciiOfLength(10)).settings(
+                ImmutableSettings.settingsBuilder().put("threadpool.bulk.size", 1).put("threadpool.bulk.queue_size", 1)).node();
+        try {
+            Settings settings = ImmutableSettings.settingsBuilder()
+                    .put("osem.bulk.actions", randomIntBetween(1, 5))
+                    .put("osem.bulk.split.concurrent_requests", randomIntBetween(4, 8))
+                    .put("osem.bulk.retry.max_retries", 100)
+                    .put("osem.bulk.retry.initial_backoff", "5ms")
+                    .put("osem.bulk.retry.max_backoff", "100ms")
+                    .put("osem.bulk.retry.budget", 100).build();
+            ElasticSearchIndexer retryIndexer = new ElasticSearchIndexerImpl(retryNode.client(), "retry_test", new ObjectProcessor(),
+                    OsemCache.getInstance(), new OsemSettings(settings), null, null, null, null);
+            retryIndexer.createIndex();
+            retryIndexer.createMapping(Tweet.class);
+
+            int count = randomIntBetween(50, 100);
+            Object[] tweets = new Object[count];
+            for (int i = 0; i < count; i++) {
+                tweets[i] = getRandomTweet();
+            }
+
+            // keep the bulk thread pool busy and its queue full for a while, so the first requests are rejected
+            ThreadPool threadPool = ((InternalNode) retryNode).injector().getInstance(ThreadPool.class);
+            final CountDownLatch blocked = new CountDownLatch(1);
+            Runnable blocker = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        blocked.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            threadPool.executor(ThreadPool.Names.BULK).execute(blocker);
+            threadPool.executor(ThreadPool.Names.BULK).execute(blocker);
+            threadPool.schedule(TimeValue.timeValueMillis(200), ThreadPool.Names.GENERIC, new Runnable() {
+                @Override
+                public void run() {
+                    blocked.countDown();
+                }
+            });
+
+            OsemBulkResponse response = retryIndexer.bulkIndex(tweets);
+            logger.info("Bulk indexed {} objects with {} requests and {} retries", count, response.getNumberOfRequests(), response.getRetries());
+            assertThat(response.getRetries(), greaterThan(0));
+            assertThat(response.buildFailureMessage(), response.hasFailures(), equalTo(false));
+            assertThat(response.getDroppedItems(), empty());
+            retryIndexer.refreshIndex();
+            assertThat(new ElasticSearchSearcherImpl(retryNode.client(), "retry_test").count(Tweet.class, null), equalTo((long) count));
+            retryIndexer.deleteIndex();
+        } finally {
+            retryNode.close();
+        }
+    }
+
+    @Test
+    public void test_bulk_processor() {
+        Integer count = randomIntBetween(10, 50);
+        List<Tweet> tweets = new ArrayList<Tweet>();
+        for (int i = 0; i < count; i ++) {
+            tweets.add(getRandomTweet());
+        }
+
+        // test queue index objects
+        indexer.startBulkProcessor(randomIntBetween(1, 10), null, null, randomIntBetween(0, 2), null);
+        for (Tweet tweet : tweets) {
+            indexer.queueIndex(tweet);
+        }
+        indexer.closeBulkProcessor();
+        indexer.refreshIndex();
+        assertThat(searcher.count(Tweet.class, null), equalTo((long) count));
+
+        // test queue delete objects
+        indexer.startBulkProcessor(randomIntBetween(1, 10), null, null, randomIntBetween(0, 2), null);
+        for (Tweet tweet : tweets) {
+            indexer.queueDelete(tweet);
+        }
+        indexer.closeBulkProcessor();
+        indexer.refreshIndex();
+        assertThat(searcher.count(Tweet.class, null), equalTo(0l));
+    }
+
+    @Test
+    public void test_update() {
+        // update named properties of a tweet, the rest of the source is kept
+        Tweet tweet = getRandomTweet();
+        indexer.index(tweet);
+        tweet.setFlagged(!tweet.getFlagged());
+        tweet.setTweetString(randomAsciiOfLength(10));
+        String oldImage = tweet.getImage();
+        tweet.setImage(null);
+        UpdateResponse updateResponse = indexer.update(tweet, "flagged", "tweetString");
+        assertThat(updateResponse.getVersion(), equalTo(2l));
+        Tweet tweetFromIndex = searcher.getById(Tweet.class, tweet.getId().toString());
+        assertThat(tweetFromIndex.getFlagged(), equalTo(tweet.getFlagged()));
+        assertThat(tweetFromIndex.getTweetString(), equalTo(tweet.getTweetString()));
+        tweet.setImage(oldImage);
+        checkTweetEquals(tweetFromIndex, tweet);
+
+        // update changed properties of dirty tracking objects
+        TweetStats stats = new TweetStats();
+        stats.setId(randomLong());
+        stats.setRetweetCount(randomIntBetween(0, 100));
+        stats.setFavoriteCount(randomIntBetween(0, 100));
+        indexer.index(stats);
+        stats.clearDirtyFields();
+        assertThat(indexer.update(stats), nullValue());  // nothing changed
+        assertThat(indexer.updateAsync(stats).actionGet(), nullValue());
+
+        stats.setRetweetCount(stats.getRetweetCount() + 1);
+        assertThat(indexer.update(stats).getVersion(), equalTo(2l));
+        assertThat(stats.getDirtyFields(), empty());
+        TweetStats statsFromIndex = searcher.getById(TweetStats.class, stats.getId().toString());
+        assertThat(statsFromIndex.getRetweetCount(), equalTo(stats.getRetweetCount()));
+
+        assertThat(statsFromIndex.getFavoriteCount(), equalTo(stats.getFavoriteCount()));
+
+        // changed properties are cleared before the future completes
+        stats.setFavoriteCount(stats.getFavoriteCount() + 1);
+        assertThat(indexer.updateAsync(stats).actionGet().getVersion(), equalTo(3l));
+        assertThat(stats.getDirtyFields(), empty());
+        assertThat(indexer.update(stats), nullValue());
+
+        // bulk update, objects without changes are skipped
+        Integer count = randomIntBetween(2, 20);
+        List<TweetStats> statsList = new ArrayList<TweetStats>();
+        for (int i = 0; i < count; i++) {
+            TweetStats newStats = new TweetStats();
+            newStats.setId(randomLong());
+            newStats.setRetweetCount(0);
+            newStats.setFavoriteCount(0);
+            statsList.add(newStats);
+        }
+        assertThat(indexer.bulkIndex(statsList.toArray()).hasFailures(), equalTo(false));
+        int changed = 0;
+        for (TweetStats newStats : statsList) {
+            newStats.clearDirtyFields();
+            if (randomBoolean()) {
+                newStats.setFavoriteCount(randomIntBetween(1, 100));
+                changed++;
+            }
+        }
+        BulkResponse bulkUpdateResponse = indexer.bulkUpdate(statsList.toArray());
+        assertThat(bulkUpdateResponse.hasFailures(), equalTo(false));
+        assertThat(bulkUpdateResponse.getItems().length, equalTo(changed));
+        for (TweetStats newStats : statsList) {
+            assertThat(newStats.getDirtyFields(), empty());
+            TweetStats newStatsFromIndex = searcher.getById(TweetStats.class, newStats.getId().toString());
+            assertThat(newStatsFromIndex.getFavoriteCount(), equalTo(newStats.getFavoriteCount()));
+            assertThat(newStatsFromIndex.getRetweetCount(), equalTo(0));
+        }
+    }
+
+    @Test
+    public void test_versioned_writes() {
+        TweetStats stats = new TweetStats();
+        stats.setId(randomLong());
+        stats.setRetweetCount(randomIntBetween(0, 100));
+        stats.setVersion((long) randomIntBetween(1, 1000));
+        assertThat(indexer.index(stats).getVersion(), equalTo(stats.getVersion()));
+
+        // write with same version conflicts, greater version wins
+        try {
+            indexer.index(stats);
+            fail("index with same version should conflict");
+        } catch (VersionConflictEngineException e) {
+            // expected
+        }
+        stats.setVersion(stats.getVersion() + 1);
+        assertThat(indexer.index(stats).getVersion(), equalTo(stats.getVersion()));
+
+        // conflicts are reported per item in bulk responses
+        TweetStats stale = new TweetStats();
+        stale.setId(stats.getId());
+        stale.setVersion(stats.getVersion() - 1);
+        TweetStats other = new TweetStats();
+        other.setId(randomLong());
+        other.setVersion(1l);
+        OsemBulkResponse bulkResponse = indexer.bulkIndex(stale, other);
+        assertThat(bulkResponse.hasFailures(), equalTo(true));
+        assertThat(bulkResponse.getConflicts(), hasSize(1));
+        assertThat(bulkResponse.getConflicts().get(0).getItemId(), equalTo(0));
+        assertThat(bulkResponse.getItems()[1].isFailed(), equalTo(false));
+
+        // delete with stale version conflicts
+        bulkResponse = indexer.bulkDelete(stale);
+        assertThat(bulkResponse.getConflicts(), hasSize(1));
+        stats.setVersion(stats.getVersion() + 1);
+        assertThat(indexer.delete(stats).isFound(), equalTo(true));
+        assertThat(searcher.getById(TweetStats.class, stats.getId().toString()), nullValue());
+    }
+
+    @Test
+    public void test_bulk_create() {
+        Integer count = randomIntBetween(10, 50);
+        List<Tweet> tweets = new ArrayList<Tweet>();
+        List<Tweet> existing = new ArrayList<Tweet>();
+        for (int i = 0; i < count; i++) {
+            Tweet tweet = getRandomTweet();
+            tweets.add(tweet);
+            if (i == 0 || randomBoolean()) {
+                existing.add(tweet);
+            }
+        }
+        assertThat(indexer.bulkIndex(existing.toArray()).hasFailures(), equalTo(false));
+
+        // existing tweets are skipped and not overwritten
+        Tweet changed = existing.get(0);
+        String oldTweetString = changed.getTweetString();
+        changed.setTweetString(randomAsciiOfLength(10));
+        OsemBulkResponse createResponse = indexer.bulkCreate(tweets.toArray());
+        assertThat(createResponse.hasFailures(), equalTo(false));
+        assertThat(createResponse.getItems().length, equalTo(count));
+        assertThat(createResponse.getSkippedItems(), hasSize(existing.size()));
+        indexer.refreshIndex();
+        assertThat(searcher.count(Tweet.class, null), equalTo((long) count));
+        assertThat(searcher.getById(Tweet.class, changed.getId().toString()).getTweetString(), equalTo(oldTweetString));
+
+        // stale versions are skipped as well in conditional mode
+        TweetStats stats = new TweetStats();
+        stats.setId(randomLong());
+        stats.setVersion(2l);
+        indexer.index(stats);
+        stats.setVersion(1l);
+        OsemBulkResponse indexResponse = indexer.bulkIndex(IndexRequest.OpType.INDEX, stats);
+        assertThat(indexResponse.hasFailures(), equalTo(false));
+        assertThat(indexResponse.getSkippedItems(), hasSize(1));
+        assertThat(indexer.bulkIndex(stats).getSkippedItems(), empty());  // plain bulk index reports conflicts as failures
+    }
+
+    @Test
+    public void test_bulk_index_unchanged() {
+        ElasticSearchIndexer hashIndexer = new ElasticSearchIndexerImpl(node.client(), "test", new ObjectProcessor(),
+                OsemCache.getInstance(), OsemSettings.DEFAULT, null, new InMemorySourceHashStore(), null, null);
+        Integer count = randomIntBetween(10, 50);
+        List<Tweet> tweets = new ArrayList<Tweet>();
+        for (int i = 0; i < count; i++) {
+            tweets.add(getRandomTweet());
+        }
+        OsemBulkResponse response = hashIndexer.bulkIndex(tweets.toArray());
+        assertThat(response.getItems().length, equalTo(count));
+        assertThat(response.getUnchanged(), equalTo(0));
+
+        // only changed tweets are sent again
+        int changed = 0;
+        for (Tweet tweet : tweets) {
+            if (randomBoolean()) {
+                tweet.setTweetString(randomAsciiOfLength(10));
+                changed++;
+            }
+        }
+        response = hashIndexer.bulkIndex(tweets.toArray());
+        assertThat(response.hasFailures(), equalTo(false));
+        assertThat(response.getItems().length, equalTo(changed));
+        assertThat(response.getUnchanged(), equalTo(count - changed));
+        for (BulkItemResponse item : response) {
+            assertThat(item.getVersion(), equalTo(2l));
+        }
+
+        // written outside of bulk index, sent again
+        Tweet deleted = tweets.get(0);
+        hashIndexer.delete(deleted);
+        response = hashIndexer.bulkIndex(tweets.toArray());
+        assertThat(response.getItems().length, equalTo(1));
+        assertThat(response.getItems()[0].getId(), equalTo(deleted.getId().toString()));
+        indexer.refreshIndex();
+        assertThat(searcher.count(Tweet.class, null), equalTo((long) count));
+
+        // hashes of the documents deleted by query are forgotten, those of other indices are kept
+        ElasticSearchIndexer otherIndexer = hashIndexer.forIndex("hash_test");
+        otherIndexer.createIndex();
+        try {
+            assertThat(otherIndexer.bulkIndex(tweets.toArray()).getItems().length, equalTo(count));
+            hashIndexer.deleteByQuery(Tweet.class, QueryBuilders.matchAllQuery());
+            response = hashIndexer.bulkIndex(tweets.toArray());
+            assertThat(response.getItems().length, equalTo(count));
+            assertThat(otherIndexer.bulkIndex(tweets.toArray()).getUnchanged(), equalTo(count));
+
+            // all hashes of the index are forgotten with the index
+            hashIndexer.deleteIndex();
+            hashIndexer.createIndex();
+            response = hashIndexer.bulkIndex(tweets.toArray());
+            assertThat(response.getItems().length, equalTo(count));
+            assertThat(otherIndexer.bulkIndex(tweets.toArray()).getUnchanged(), equalTo(count));
+        } finally {
+            otherIndexer.deleteIndex();
+        }
+    }
+
+    @Test
+    public void test_spool() throws IOException {
+        WriteAheadSpool spool = new WriteAheadSpool(new File(newTempDir(), "spool"), new ByteSizeValue(16, ByteSizeUnit.MB));
+        ElasticSearchIndexer spoolIndexer = new ElasticSearchIndexerImpl(node.client(), "test", new ObjectProcessor(),
+                OsemCache.getInstance(), OsemSettings.DEFAULT, null, null, spool, null);
+        Tweet deleted = getRandomTweet();
+        assertThat(spoolIndexer.index(deleted), notNullValue());
+
+        // requests are spooled while the index is blocked
+        node.client().admin().indices().prepareUpdateSettings("test")
+                .setSettings(ImmutableSettings.settingsBuilder().put("index.blocks.write", true)).get();
+        int count = randomIntBetween(1, 20);
+        for (int i = 0; i < count; i++) {
+            assertThat(spoolIndexer.index(getRandomTweet()), nullValue());
+        }
+        assertThat(spoolIndexer.delete(deleted), nullValue());
+        TweetStats stats = new TweetStats();
+        stats.setId(randomLong());
+        stats.setRetweetCount(randomInt());
+        assertThat(spoolIndexer.index(stats), nullValue());  // spooled with its mapping
+        assertThat(spool.size(), equalTo(count + 3));
+
+        assertThat(spool.replay(node.client(), 5), equalTo(0));  // still blocked, kept
+        assertThat(spool.size(), equalTo(count + 3));
+
+        // replayed in order once the index is writable again
+        node.client().admin().indices().prepareUpdateSettings("test")
+                .setSettings(ImmutableSettings.settingsBuilder().put("index.blocks.write", false)).get();
+        assertThat(spool.replay(node.client(), 5), equalTo(count + 3));
+        assertThat(spool.isEmpty(), equalTo(true));
+        indexer.refreshIndex();
+        assertThat(searcher.count(Tweet.class, null), equalTo((long) count));
+        assertThat(searcher.getById(TweetStats.class, stats.getId().toString()).getRetweetCount(), equalTo(stats.getRetweetCount()));
+
+        // written directly once the spool is drained
+        assertThat(spoolIndexer.index(deleted), notNullValue());
+        spool.close();
+    }
+
+    @Test
+    public void test_spool_partial_replay() throws IOException {
+        WriteAheadSpool spool = new WriteAheadSpool(new File(newTempDir(), "spool"), new ByteSizeValue(1, ByteSizeUnit.MB));
+        node.client().admin().indices().prepareCreate("spool_test").get();
+        node.client().admin().cluster().prepareHealth("spool_test").setWaitForYellowStatus().get();
+        try {
+            node.client().admin().indices().prepareUpdateSettings("test")
+                    .setSettings(ImmutableSettings.settingsBuilder().put("index.blocks.write", true)).get();
+            int count = randomIntBetween(2, 20);
+            int firstBlocked = randomIntBetween(0, count - 1);
+            for (int i = 0; i < count; i++) {
+                String index = i == firstBlocked ? "test" : (i > firstBlocked && randomBoolean() ? "test" : "spool_test");
+                spool.append(new IndexRequest(index, "doc", String.valueOf(i)).source("{\"id\":" + i + "}"));
+            }
+            // deleted after an index request which is kept, the delete must not be applied first
+            spool.append(new IndexRequest("test", "doc", "deleted").source("{\"id\":-1}"));
+            spool.append(new DeleteRequest("test", "doc", "deleted"));
+
+            // the requests from the first blocked one on are kept
+            assertThat(spool.replay(node.client(), count + 2), equalTo(firstBlocked));
+            assertThat(spool.size(), equalTo(count + 2 - firstBlocked));
+
+            node.client().admin().indices().prepareUpdateSettings("test")
+                    .setSettings(ImmutableSettings.settingsBuilder().put("index.blocks.write", false)).get();
+            assertThat(spool.replay(node.client(), count + 2), equalTo(count + 2 - firstBlocked));
+            assertThat(spool.isEmpty(), equalTo(true));
+            assertThat(node.client().prepareGet("test", "doc", "deleted").get().isExists(), equalTo(false));
+
+            // requests before the first blocked one are not sent again
+            for (int i = 0; i < count; i++) {
+                GetResponse response = node.client().prepareGet("spool_test", "doc", String.valueOf(i)).get();
+                if (response.isExists()) {
+                    assertThat(response.getVersion(), equalTo(i < firstBlocked ? 1l : 2l));
+                }
+            }
+        } finally {
+            node.client().admin().indices().prepareUpdateSettings("test")
+                    .setSettings(ImmutableSettings.settingsBuilder().put("index.blocks.write", false)).get();
+            node.client().admin().indices().prepareDelete("spool_test").get();
+            spool.close();
+        }
+    }
+
+    @Test
+    public void test_spool_compaction() throws IOException {
+        File file = new File(newTempDir(), "spool");
+        WriteAheadSpool spool = new WriteAheadSpool(file, new ByteSizeValue(16, ByteSizeUnit.KB));
+        node.client().admin().indices().prepareCreate("spool_test").get();
+        node.client().admin().cluster().prepareHealth("spool_test").setWaitForYellowStatus().get();
+        try {
+            node.client().admin().indices().prepareUpdateSettings("test")
+                    .setSettings(ImmutableSettings.settingsBuilder().put("index.blocks.write", true)).get();
+            // replayed requests take more than half of the log
+            int replayed = randomIntBetween(10, 12);
+            int pending = randomIntBetween(1, 10);
+            for (int i = 0; i < replayed; i++) {
+                spool.append(new IndexRequest("spool_test", "doc", String.valueOf(i))
+                        .source("{\"text\":\"" + randomAsciiOfLength(1000) + "\"}"));
+            }
+            for (int i = 0; i < pending; i++) {
+                spool.append(new IndexRequest("test", "doc", String.valueOf(1000 + i)).source("{\"id\":" + i + "}"));
+            }
+            assertThat(spool.replay(node.client(), replayed + pending), equalTo(replayed));
+            spool.close();
+
+            // crash partway through a compaction, the pending records are partly copied to the start of the log
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.seek(8);
+            int readPosition = raf.readInt();
+            int writePosition = raf.readInt();
+            byte[] records = new byte[writePosition - readPosition];
+            raf.seek(readPosition);
+            raf.readFully(records);
+            raf.seek(32);
+            raf.write(records, 0, records.length / 2);
+            raf.close();
+            spool = new WriteAheadSpool(file, new ByteSizeValue(16, ByteSizeUnit.KB));
+            assertThat(spool.size(), equalTo(pending));
+
+            // the log is compacted when full, then only rejects requests once the pending ones take all the space
+            int appended = 0;
+            try {
+                while (true) {
+                    spool.append(new IndexRequest("test", "doc", String.valueOf(2000 + appended)).source("{\"id\":" + appended + "}"));
+                    appended++;
+                }
+            } catch (ElasticSearchOsemException e) {
+                assertThat(e.getMessage(), containsString("full"));
+            }
+            spool.close();
+            raf = new RandomAccessFile(file, "r");
+            raf.seek(8);
+            assertThat(raf.readInt(), equalTo(32));
+            raf.close();
+
+            spool = new WriteAheadSpool(file, new ByteSizeValue(16, ByteSizeUnit.KB));
+            assertThat(spool.size(), equalTo(pending + appended));
+            node.client().admin().indices().prepareUpdateSettings("test")
+                    .setSettings(ImmutableSettings.settingsBuilder().put("index.blocks.write", false)).get();
+            assertThat(spool.replay(node.client(), 100), equalTo(pending + appended));
+            indexer.refreshIndex();
+            assertThat(node.client().prepareCount("test").get().getCount(), equalTo((long) (pending + appended)));
+        } finally {
+            node.client().admin().indices().prepareUpdateSettings("test")
+                    .setSettings(ImmutableSettings.settingsBuilder().put("index.blocks.write", false)).get();
+            node.client().admin().indices().prepareDelete("spool_test").get();
+            spool.close();
+        }
+    }
+
+    @Test
+    public void test_async_operations() {
+        // test index object
+        Tweet tweet = getRandomTweet();
+        IndexResponse indexResponse = indexer.indexAsync(tweet).actionGet();
+        assertThat(Long.parseLong(indexResponse.getId()), equalTo(tweet.getId()));
+
+        // test get object
+        Tweet tweetFromIndex = searcher.getByIdAsync(Tweet.class, tweet.getId().toString(), null).actionGet();
+        checkTweetEquals(tweetFromIndex, tweet);
+
+        // test search and count
+        indexer.refreshIndex();
+        assertThat(searcher.countAsync(Tweet.class, null).actionGet(), equalTo(1l));
+        List<Tweet> searchResult = searcher.searchAsync(Tweet.class, QueryBuilders.matchAllQuery(), null).actionGet();
+        assertThat(searchResult, hasSize(1));
+        checkTweetEquals(searchResult.get(0), tweet);
+
+        // test delete object
+        indexer.deleteAsync(tweet).actionGet();
+        assertThat(searcher.getByIdAsync(Tweet.class, tweet.getId().toString(), null).actionGet(), nullValue());
+    }
+
+    @Test
+    public void test_scan() {
+        Integer count = randomIntBetween(10, 50);
+        List<Tweet> tweets = new ArrayList<Tweet>();
+        for (int i = 0; i < count; i ++) {
+            tweets.add(getRandomTweet());
+        }
+        indexer.bulkIndex(tweets.toArray());
+        indexer.refreshIndex();
+
+        // iterate all objects in small batches
+        Iterator<Tweet> iterator = searcher.scan(Tweet.class, QueryBuilders.matchAllQuery(), randomIntBetween(1, 5));
+        Set<Long> tweetIds = new HashSet<Long>();
+        while (iterator.hasNext()) {
+            tweetIds.add(iterator.next().getId());
+        }
+        assertThat(tweetIds, hasSize(count));
+        for (Tweet tweet : tweets) {
+            assertThat(tweetIds, hasItem(tweet.getId()));
+        }
+
+        // stop iterating early
+        CloseableIterator<Tweet> closeable = searcher.scan(Tweet.class, QueryBuilders.matchAllQuery(), 1);
+        assertThat(closeable.next(), notNullValue());
+        closeable.close();
+        assertThat(closeable.hasNext(), equalTo(false));
+    }
+
     @Test
     public void test_search() {
         // index object
@@ -0,0 +1,102 @@
+package com.github.kzwang.osem.cache;
+
+
+import com.github.kzwang.osem.test.AbstractOsemTest;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+
+public class OsemCacheTest extends AbstractOsemTest {
+
+    private final OsemCache osemCache = OsemCache.getInstance();
+
+    @Test
+    public void test_singleton() {
+        assertThat(OsemCache.getInstance(), sameInstance(osemCache));
+    }
+
+    @Test
+    public void test_null_value() {
+        String key = randomAsciiOfLength(20);
+        osemCache.putCache(CacheType.MAPPING, key, null);
+        assertThat(osemCache.isExist(CacheType.MAPPING, key), equalTo(true));
+        assertThat(osemCache.getCache(CacheType.MAPPING, key), nullValue());
+        osemCache.removeCache(CacheType.MAPPING, key);
+        assertThat(osemCache.isExist(CacheType.MAPPING, key), equalTo(false));
+    }
+
+    @Test
+    public void test_put_if_absent() {
+        String key = randomAsciiOfLength(20);
+        Object value = new Object();
+        assertThat(osemCache.putCacheIfAbsent(CacheType.MAPPING, key, value), sameInstance(value));
+        assertThat(osemCache.putCacheIfAbsent(CacheType.MAPPING, key, new Object()), sameInstance(value));
+        osemCache.removeCache(CacheType.MAPPING, key);
+
+        // an existing null value is returned as null, not as the given value
+        osemCache.putCache(CacheType.MAPPING, key, null);
+        assertThat(osemCache.putCacheIfAbsent(CacheType.MAPPING, key, value), nullValue());
+        assertThat(osemCache.getCache(CacheType.MAPPING, key), nullValue());
+        osemCache.removeCache(CacheType.MAPPING, key);
+    }
+
+    @Test
+    public void test_separate_instance() {
+        OsemCache separate = new OsemCache();
+        assertThat(separate, not(sameInstance(osemCache)));
+        String key = randomAsciiOfLength(20);
+        separate.putCache(CacheType.MAPPING, key, "mapping");
+        assertThat(osemCache.isExist(CacheType.MAPPING, key), equalTo(false));
+    }
+
+    @Test
+    public void test_remove_value() {
+        MappingKey key = new MappingKey(randomAsciiOfLength(10), OsemCacheTest.class);
+        Object value = new Object();
+        osemCache.putCache(CacheType.MAPPING_REGISTRATION, key, value);
+        assertThat(osemCache.getKeys(CacheType.MAPPING_REGISTRATION), hasItem((Object) new MappingKey(key.getIndexName(), OsemCacheTest.class)));
+        assertThat(osemCache.removeCache(CacheType.MAPPING_REGISTRATION, key, new Object()), equalTo(false));
+        assertThat(osemCache.removeCache(CacheType.MAPPING_REGISTRATION, key, value), equalTo(true));
+        assertThat(osemCache.getKeys(CacheType.MAPPING_REGISTRATION), not(hasItem((Object) key)));
+    }
+
+    @Test
+    public void test_concurrent_put_if_absent() throws InterruptedException {
+        final String key = randomAsciiOfLength(20);
+        final AtomicInteger putCount = new AtomicInteger();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        int threadCount = randomIntBetween(2, 10);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < threadCount; i++) {
+            final Integer value = i;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (osemCache.putCacheIfAbsent(CacheType.MAPPING, key, value) == value) {
+                        putCount.incrementAndGet();
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(putCount.get(), equalTo(1));
+        assertThat(osemCache.getCache(CacheType.MAPPING, key), notNullValue());
+        osemCache.removeCache(CacheType.MAPPING, key);
+    }
+
+}
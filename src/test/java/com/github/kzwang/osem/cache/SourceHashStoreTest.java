@@ -0,0 +1,97 @@
+package com.github.kzwang.osem.cache;
+
+
+import com.github.kzwang.osem.test.AbstractOsemTest;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.*;
+
+public class SourceHashStoreTest extends AbstractOsemTest {
+
+    @Test
+    public void test_in_memory_store() {
+        checkStore(new InMemorySourceHashStore());
+    }
+
+    @Test
+    public void test_mapped_store() throws IOException {
+        File file = new File(newTempDir(), "source_hash");
+        MappedSourceHashStore store = new MappedSourceHashStore(file, 1000);
+        checkStore(store);
+
+        // hashes survive reopening the file
+        store.put("test", "tweet", "1", 42);
+        store.close();
+        store = new MappedSourceHashStore(file, 1000);
+        assertThat(store.size(), equalTo(1));
+        assertThat(store.get("test", "tweet", "1"), equalTo(42l));
+
+        // reset if opened with another capacity
+        store.close();
+        store = new MappedSourceHashStore(file, 10000);
+        assertThat(store.size(), equalTo(0));
+        assertThat(store.get("test", "tweet", "1"), equalTo(0l));
+        store.close();
+    }
+
+    @Test
+    public void test_mapped_store_full() throws IOException {
+        int capacity = randomIntBetween(1, 100);
+        MappedSourceHashStore store = new MappedSourceHashStore(new File(newTempDir(), "source_hash"), capacity);
+        for (int i = 0; i < capacity * 2; i++) {
+            store.put("test", "tweet", String.valueOf(i), i + 1);
+        }
+        assertThat(store.size(), equalTo(capacity));
+        assertThat(store.get("test", "tweet", "0"), equalTo(1l));
+        assertThat(store.get("test", "tweet", String.valueOf(capacity)), equalTo(0l));  // not stored, always written
+
+        // slot of a removed document is kept for it
+        store.remove("test", "tweet", "0");
+        assertThat(store.size(), equalTo(capacity - 1));
+        store.put("test", "tweet", "0", 1);
+        assertThat(store.get("test", "tweet", "0"), equalTo(1l));
+        store.close();
+    }
+
+    private void checkStore(SourceHashStore store) {
+        int count = randomIntBetween(10, 500);
+        for (int i = 0; i < count; i++) {
+            store.put("test", "tweet", String.valueOf(i), i + 1);
+        }
+        assertThat(store.size(), equalTo(count));
+        for (int i = 0; i < count; i++) {
+            assertThat(store.get("test", "tweet", String.valueOf(i)), equalTo((long) i + 1));
+        }
+        // keyed by index, type and id
+        assertThat(store.get("other", "tweet", "0"), equalTo(0l));
+        assertThat(store.get("test", "other", "0"), equalTo(0l));
+
+        store.put("test", "tweet", "0", 100);
+        assertThat(store.get("test", "tweet", "0"), equalTo(100l));
+        store.remove("test", "tweet", "0");
+        assertThat(store.get("test", "tweet", "0"), equalTo(0l));
+        assertThat(store.size(), equalTo(count - 1));
+
+        // cleared by index and type
+        store.put("test", "user", "1", 1);
+        store.put("other", "tweet", "1", 1);
+        store.clear("test", "tweet");
+        assertThat(store.get("test", "tweet", "1"), equalTo(0l));
+        assertThat(store.get("test", "user", "1"), equalTo(1l));
+        assertThat(store.get("other", "tweet", "1"), equalTo(1l));
+        assertThat(store.size(), equalTo(2));
+        store.put("test", "tweet", "1", 2);
+        store.clear("test", null);
+        assertThat(store.get("test", "tweet", "1"), equalTo(0l));
+        assertThat(store.get("test", "user", "1"), equalTo(0l));
+        assertThat(store.get("other", "tweet", "1"), equalTo(1l));
+        assertThat(store.size(), equalTo(1));
+
+        store.clear();
+        assertThat(store.size(), equalTo(0));
+        assertThat(store.get("other", "tweet", "1"), equalTo(0l));
+    }
+}
@@ -0,0 +1,157 @@
+package com.github.kzwang.osem.impl;
+
+
+import com.github.kzwang.osem.test.AbstractOsemTest;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+
+public class BulkExecutorTest extends AbstractOsemTest {
+
+    @Test
+    public void test_split_by_actions() {
+        int maxActions = randomIntBetween(1, 10);
+        int count = randomIntBetween(0, 100);
+        BulkRequest request = new BulkRequest().refresh(true);
+        for (int i = 0; i < count; i++) {
+            request.add(new DeleteRequest("test", "type", String.valueOf(i)));
+        }
+
+        List<BulkRequest> requests = new BulkExecutor(null, maxActions, new ByteSizeValue(-1), 1).split(request);
+
+        assertThat(requests, hasSize(Math.max(1, (count + maxActions - 1) / maxActions)));
+        List<ActionRequest> actions = new ArrayList<ActionRequest>();
+        for (BulkRequest splitRequest : requests) {
+            assertThat(splitRequest.numberOfActions(), lessThanOrEqualTo(maxActions));
+            assertThat(splitRequest.refresh(), equalTo(true));
+            actions.addAll(splitRequest.requests());
+        }
+        assertThat(actions, equalTo(request.requests()));  // same actions in same order
+    }
+
+    @Test
+    public void test_split_by_size() {
+        int count = randomIntBetween(10, 50);
+        BulkRequest request = new BulkRequest();
+        for (int i = 0; i < count; i++) {
+            request.add(new IndexRequest("test", "type", String.valueOf(i)).source("field", randomAsciiOfLength(1000)));
+        }
+        long maxBytes = randomIntBetween(2000, 10000);
+
+        List<BulkRequest> requests = new BulkExecutor(null, -1, new ByteSizeValue(maxBytes), 1).split(request);
+
+        assertThat(requests.size(), greaterThan(1));
+        int total = 0;
+        for (BulkRequest splitRequest : requests) {
+            // a request is closed once it reaches the max size, so only its last action can exceed it
+            IndexRequest last = (IndexRequest) splitRequest.requests().get(splitRequest.numberOfActions() - 1);
+            assertThat(splitRequest.estimatedSizeInBytes() - last.source().length(), lessThan(maxBytes));
+            total += splitRequest.numberOfActions();
+        }
+        assertThat(total, equalTo(count));
+    }
+
+    @Test
+    public void test_retry_policy() {
+        BulkRetryPolicy policy = new BulkRetryPolicy(5, TimeValue.timeValueMillis(100), TimeValue.timeValueSeconds(1), 0.5f);
+        assertThat(policy.getRetryBudget(10), equalTo(5));
+        for (int retry = 1; retry <= 10; retry++) {
+            long backoff = Math.min(1000, 100L << (retry - 1));
+            assertThat(policy.getBackoffMillis(retry), allOf(greaterThanOrEqualTo(backoff / 2), lessThanOrEqualTo(backoff)));
+        }
+
+        BulkItemResponse rejected = new BulkItemResponse(0, "delete",
+                new BulkItemResponse.Failure("test", "type", "1", new EsRejectedExecutionException("rejected execution")));
+        assertThat(BulkRetryPolicy.isRejected(rejected), equalTo(true));
+        BulkItemResponse failed = new BulkItemResponse(0, "delete",
+                new BulkItemResponse.Failure("test", "type", "1", new ElasticsearchException("failed")));
+        assertThat(BulkRetryPolicy.isRejected(failed), equalTo(false));
+    }
+
+    @Test
+    public void test_adaptive_controller() {
+        AdaptiveBulkController controller = new AdaptiveBulkController(TimeValue.timeValueMillis(100), 10, 100, 50, 4, 1);
+        assertThat(controller.getBatchSize(), equalTo(50));
+        assertThat(controller.getConcurrentRequests(), equalTo(1));
+
+        // additive increase below the target latency, then more concurrent requests
+        controller.onResponse(50, 10, 0);
+        assertThat(controller.getBatchSize(), equalTo(60));
+        for (int i = 0; i < 10; i++) {
+            controller.onResponse(controller.getBatchSize(), 10, 0);
+        }
+        assertThat(controller.getBatchSize(), equalTo(100));
+        assertThat(controller.getConcurrentRequests(), equalTo(4));
+        controller.onResponse(5, 10, 0);  // small request, no change
+        assertThat(controller.getBatchSize(), equalTo(100));
+
+        // decrease in proportion above the target latency, at most halved
+        controller.onResponse(100, 125, 0);
+        assertThat(controller.getBatchSize(), equalTo(80));
+        controller.onResponse(80, 1000, 0);
+        assertThat(controller.getBatchSize(), equalTo(40));
+
+        // multiplicative decrease of both on rejections
+        controller.onResponse(40, 10, 1);
+        assertThat(controller.getBatchSize(), equalTo(20));
+        assertThat(controller.getConcurrentRequests(), equalTo(2));
+        controller.onResponse(20, 10, 20);
+        controller.onResponse(10, 10, 10);
+        assertThat(controller.getBatchSize(), equalTo(10));
+        assertThat(controller.getConcurrentRequests(), equalTo(1));
+        assertThat(controller.getNumberOfRejectedItems(), equalTo(31l));
+        assertThat(controller.getRejectionRate(), greaterThan(0d));
+
+        // client side serialization counts in the latency
+        controller.onSerialization(10, TimeValue.timeValueMillis(1000).nanos());
+        assertThat(controller.getSerializationNanosPerAction(), equalTo(TimeValue.timeValueMillis(100).nanos()));
+        controller.onResponse(10, 10, 0);
+        assertThat(controller.getBatchSize(), equalTo(10));  // over the target, not increased
+    }
+
+    @Test
+    public void test_adaptive_controller_failure() {
+        AdaptiveBulkController controller = new AdaptiveBulkController(TimeValue.timeValueMillis(100), 10, 100, 100, 4, 4);
+
+        // a request failed as a whole halves both, like rejections
+        controller.onFailure(100);
+        assertThat(controller.getBatchSize(), equalTo(50));
+        assertThat(controller.getConcurrentRequests(), equalTo(2));
+        controller.onFailure(50);
+        controller.onFailure(25);
+        assertThat(controller.getBatchSize(), equalTo(12));
+        assertThat(controller.getConcurrentRequests(), equalTo(1));
+        controller.onFailure(12);
+        assertThat(controller.getBatchSize(), equalTo(10));
+        assertThat(controller.getNumberOfFailedRequests(), equalTo(4l));
+        assertThat(controller.getNumberOfRequests(), equalTo(0l));
+        assertThat(controller.getAverageLatencyMillis(), equalTo(0l));
+    }
+
+    @Test
+    public void test_split_by_controller() {
+        AdaptiveBulkController controller = new AdaptiveBulkController(TimeValue.timeValueSeconds(1), 1, 100, randomIntBetween(1, 100), 1, 1);
+        BulkRequest request = new BulkRequest();
+        int count = randomIntBetween(1, 200);
+        for (int i = 0; i < count; i++) {
+            request.add(new DeleteRequest("test", "type", String.valueOf(i)));
+        }
+
+        List<BulkRequest> requests = new BulkExecutor(null, 1000, new ByteSizeValue(-1), 1, null, controller).split(request);
+
+        int batchSize = controller.getBatchSize();
+        assertThat(requests, hasSize((count + batchSize - 1) / batchSize));  // max actions of the executor is ignored
+    }
+}
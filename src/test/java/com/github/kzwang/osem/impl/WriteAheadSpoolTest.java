@@ -0,0 +1,68 @@
+package com.github.kzwang.osem.impl;
+
+
+import com.github.kzwang.osem.exception.ElasticSearchOsemException;
+import com.github.kzwang.osem.test.AbstractOsemTest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.*;
+
+public class WriteAheadSpoolTest extends AbstractOsemTest {
+
+    @Test
+    public void test_spool_reopen() throws IOException {
+        File file = new File(newTempDir(), "spool");
+        // synced on each append or on an interval
+        TimeValue syncInterval = randomBoolean() ? TimeValue.timeValueMillis(0) : TimeValue.timeValueMillis(randomIntBetween(1, 100));
+        WriteAheadSpool spool = new WriteAheadSpool(file, new ByteSizeValue(1, ByteSizeUnit.MB), syncInterval);
+        assertThat(spool.isEmpty(), equalTo(true));
+        int count = randomIntBetween(1, 100);
+        for (int i = 0; i < count; i++) {
+            spool.append(new IndexRequest("test", "tweet", String.valueOf(i)).source("{\"id\":" + i + "}"));
+        }
+        spool.append(new DeleteRequest("test", "tweet", "0"));
+        spool.appendMapping("test", "tweet", "{\"tweet\":{}}");
+        spool.appendMapping("test", "tweet", "{\"tweet\":{}}");  // already spooled
+        assertThat(spool.size(), equalTo(count + 2));
+
+        // pending requests survive reopening the file, even with another size
+        spool.close();
+        spool = new WriteAheadSpool(file, new ByteSizeValue(10, ByteSizeUnit.MB));
+        assertThat(spool.size(), equalTo(count + 2));
+        assertThat(file.length(), equalTo(new ByteSizeValue(1, ByteSizeUnit.MB).bytes()));
+        spool.close();
+    }
+
+    @Test
+    public void test_spool_full() throws IOException {
+        WriteAheadSpool spool = new WriteAheadSpool(new File(newTempDir(), "spool"), new ByteSizeValue(1, ByteSizeUnit.KB));
+        int count = 0;
+        try {
+            while (true) {
+                spool.append(new IndexRequest("test", "tweet", String.valueOf(count)).source("{\"tweet\":\"" + randomAsciiOfLength(100) + "\"}"));
+                count++;
+            }
+        } catch (ElasticSearchOsemException e) {
+            assertThat(e.getMessage(), containsString("full"));
+        }
+        assertThat(count, greaterThan(0));
+        assertThat(spool.size(), equalTo(count));
+        spool.close();
+    }
+
+    @Test
+    public void test_is_unavailable() {
+        assertThat(WriteAheadSpool.isUnavailable(new NoNodeAvailableException()), equalTo(true));
+        assertThat(WriteAheadSpool.isUnavailable(new ElasticSearchOsemException("wrapped", new NoNodeAvailableException())), equalTo(true));
+        assertThat(WriteAheadSpool.isUnavailable(new ElasticSearchOsemException("failed")), equalTo(false));
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.kzwang.osem.model;
+
+import com.github.kzwang.osem.annotations.Indexable;
+import com.github.kzwang.osem.annotations.IndexableId;
+import com.github.kzwang.osem.annotations.IndexableProperty;
+import com.github.kzwang.osem.annotations.IndexableVersion;
+import com.github.kzwang.osem.api.DirtyTrackable;
+
+import java.util.HashSet;
+import java.util.Set;
+
+@Indexable
+public class TweetStats implements DirtyTrackable {
+
+    @IndexableId
+    @IndexableProperty
+    private Long id;
+
+    @IndexableProperty
+    private Integer retweetCount;
+
+    @IndexableProperty(name = "favorites")
+    private Integer favoriteCount;
+
+    @IndexableVersion
+    private Long version;
+
+    private Set<String> dirtyFields = new HashSet<String>();
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Integer getRetweetCount() {
+        return retweetCount;
+    }
+
+    public void setRetweetCount(Integer retweetCount) {
+        this.retweetCount = retweetCount;
+        dirtyFields.add("retweetCount");
+    }
+
+    public Integer getFavoriteCount() {
+        return favoriteCount;
+    }
+
+    public void setFavoriteCount(Integer favoriteCount) {
+        this.favoriteCount = favoriteCount;
+        dirtyFields.add("favoriteCount");
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    @Override
+    public Set<String> getDirtyFields() {
+        return dirtyFields;
+    }
+
+    @Override
+    public void clearDirtyFields() {
+        dirtyFields.clear();
+    }
+}
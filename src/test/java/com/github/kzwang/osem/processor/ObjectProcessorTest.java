@@ -4,7 +4,12 @@ package com.github.kzwang.osem.processor;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.kzwang.osem.exception.ElasticSearchOsemException;
 import com.github.kzwang.osem.model.TweetComment;
+import com.github.kzwang.osem.model.TweetStats;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.compress.CompressorFactory;
 import org.elasticsearch.common.joda.Joda;
 import org.elasticsearch.common.joda.time.DateTime;
 import org.elasticsearch.common.logging.ESLogger;
@@ -51,6 +56,66 @@ public class ObjectProcessorTest extends AbstractOsemTest {
         assertThat(((List<String>) tweetMap.get("specialDates")).get(0), equalTo(Joda.forPattern("basic_date_time_no_millis").printer().print(new DateTime(tweet.getSpecialDates().get(0)))));
     }
 
+    @Test
+    public void test_process_object_bytes() {
+        Tweet tweet = getRandomTweet();
+        BytesReference tweetJsonBytes = objectProcessor.toJsonBytes(tweet);
+        assertThat(tweetJsonBytes.toUtf8(), equalTo(objectProcessor.toJsonString(tweet)));
+
+        // the buffer reused by the next object doesn't change the bytes already returned
+        Tweet other = getRandomTweet();
+        BytesReference otherJsonBytes = objectProcessor.toJsonBytes(other);
+        assertThat(tweetJsonBytes.toUtf8(), equalTo(objectProcessor.toJsonString(tweet)));
+        assertThat(otherJsonBytes.toUtf8(), equalTo(objectProcessor.toJsonString(other)));
+    }
+
+    @Test
+    public void test_process_object_from_bytes() throws IOException {
+        Tweet tweet = getRandomTweet();
+        BytesReference tweetJsonBytes = objectProcessor.toJsonBytes(tweet);
+
+        checkTweetEquals(objectProcessor.fromBytes(tweetJsonBytes, Tweet.class), tweet);
+
+        // compressed source as stored by ElasticSearch
+        BytesArray array = tweetJsonBytes.toBytesArray();
+        byte[] compressed = CompressorFactory.defaultCompressor().compress(array.array(), array.arrayOffset(), array.length());
+        checkTweetEquals(objectProcessor.fromBytes(new BytesArray(compressed), Tweet.class), tweet);
+    }
+
+    @Test
+    public void test_register() {
+        objectProcessor.register(Tweet.class);
+        objectProcessor.register(TweetComment.class);
+
+        Tweet tweet = getRandomTweet();
+        checkTweetEquals(objectProcessor.fromJsonString(objectProcessor.toJsonString(tweet), Tweet.class), tweet);
+        TweetComment tweetComment = getRandomTweetComment(tweet.getId());
+        TweetComment tweetCommentFromJson = objectProcessor.fromJsonString(objectProcessor.toJsonString(tweetComment), TweetComment.class);
+        assertThat(tweetCommentFromJson.getTweetId(), equalTo(tweetComment.getTweetId()));
+    }
+
+    @Test
+    public void test_process_object_partial_bytes() {
+        Tweet tweet = getRandomTweet();
+        tweet.setImage(null);
+        tweet.setUrls(null);
+        BytesReference partialJsonBytes = objectProcessor.toPartialJsonBytes(tweet, Arrays.asList("flagged", "mentionedUserList", "tweetDatetime", "image", "urls"));
+        Map<String, Object> partialMap = jsonToMap(partialJsonBytes.toUtf8());
+        Map<String, Object> tweetMap = jsonToMap(objectProcessor.toJsonString(tweet));
+
+        assertThat(partialMap.keySet(), containsInAnyOrder("flagged", "mentionedUsers", "tweetDatetime", "image", "urls"));
+        assertThat(partialMap.get("flagged"), equalTo(tweetMap.get("flagged")));
+        assertThat(partialMap.get("mentionedUsers"), equalTo(tweetMap.get("mentionedUsers")));
+        assertThat(partialMap.get("tweetDatetime"), equalTo(tweetMap.get("tweetDatetime")));
+        assertThat((String) partialMap.get("image"), equalTo("NULLSTR"));  // custom null serializer
+        assertThat(partialMap.get("urls"), nullValue());  // cleared property written as null
+    }
+
+    @Test(expected = ElasticSearchOsemException.class)
+    public void test_process_object_partial_bytes_unknown_property() {
+        objectProcessor.toPartialJsonBytes(getRandomTweet(), Arrays.asList("retweetCount"));
+    }
+
     @Test
     public void test_custom_serializer() {
         // test serialize null value
@@ -66,6 +131,12 @@ public class ObjectProcessorTest extends AbstractOsemTest {
         tweetMap = jsonToMap(tweetJson);
         assertThat((String) tweetMap.get("image"), equalTo("BBCCDD"));
 
+        // null value serializer should be reused
+        tweet.setImage(null);
+        tweetJson = objectProcessor.toJsonString(tweet);
+        tweetMap = jsonToMap(tweetJson);
+        assertThat((String) tweetMap.get("image"), equalTo("NULLSTR"));
+
     }
 
     @Test
@@ -75,6 +146,18 @@ public class ObjectProcessorTest extends AbstractOsemTest {
         assertThat(id, equalTo(tweet.getId()));
     }
 
+    @Test
+    public void test_get_version(){
+        assertThat(objectProcessor.getVersion(getRandomTweet()), nullValue());  // no version field
+
+        TweetStats stats = new TweetStats();
+        stats.setId(randomLong());
+        assertThat(objectProcessor.getVersion(stats), nullValue());
+        stats.setVersion(randomLong());
+        assertThat(objectProcessor.getVersion(stats), equalTo(stats.getVersion()));
+        assertThat(objectProcessor.toJsonString(stats), not(containsString("version")));  // not a property
+    }
+
     @Test
     public void test_get_parent_id(){
         Long tweetId = randomLong();
@@ -84,6 +167,18 @@ public class ObjectProcessorTest extends AbstractOsemTest {
     }
 
 
+    @Test
+    public void test_class_descriptor(){
+        ClassDescriptor descriptor = objectProcessor.getClassDescriptor(Tweet.class);
+        assertThat(objectProcessor.getClassDescriptor(Tweet.class), sameInstance(descriptor));
+
+        Tweet tweet = getRandomTweet();
+        assertThat((Long) descriptor.getIdValue(tweet), equalTo(tweet.getId()));
+        assertThat(descriptor.getRoutingId(tweet), nullValue());
+        assertThat(descriptor.getParentId(tweet), nullValue());
+    }
+
+
     private Map<String, Object> jsonToMap(String json) {
         JsonFactory factory = new JsonFactory();
         ObjectMapper mapper = new ObjectMapper(factory);